@@ -16,6 +16,7 @@ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
 package se.p2r.foxport;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Collection;
@@ -27,13 +28,23 @@ import se.p2r.foxport.chrome.ChromeReader;
 import se.p2r.foxport.firefox.FirefoxReader;
 import se.p2r.foxport.internal.ActiveOptions;
 import se.p2r.foxport.internal.BookmarkProcessor;
+import se.p2r.foxport.internal.BookmarkWatcher;
 import se.p2r.foxport.internal.CommandLineParser;
 import se.p2r.foxport.internal.ConfiguredBookmarkProcessor;
+import se.p2r.foxport.internal.ExportState;
 import se.p2r.foxport.internal.LinkTester;
 import se.p2r.foxport.internal.VersionInfo;
 import se.p2r.foxport.internal.exceptions.ConfigurationException;
 import se.p2r.foxport.net.FileUploader;
+import se.p2r.foxport.net.HostTimeouts;
+import se.p2r.foxport.net.LinkConnector;
+import se.p2r.foxport.net.LinkCrawler;
+import se.p2r.foxport.net.LinkProber;
+import se.p2r.foxport.net.ProbeCache;
+import se.p2r.foxport.net.ProbeQueue;
+import se.p2r.foxport.net.ProbeWorker;
 import se.p2r.foxport.util.BrowserType;
+import se.p2r.foxport.util.JsonFilter;
 import se.p2r.foxport.util.Log;
 
 /**
@@ -47,61 +58,188 @@ import se.p2r.foxport.util.Log;
  */
 public class BookmarkExporter {
 
+	private static final long WATCH_DEBOUNCE = 2000; // ms
+	private static final long WORKER_IDLE = 60 * 1000; // ms
+
 	private static int run(ActiveOptions options) throws ConfigurationException, IOException {
+		if (!options.isWatch()) {
+			if (options.getProbeCrawlRate() > 0) {
+				Log.warn("Links are crawled only when watching, probing when exporting");
+			}
+			return export(options, null);
+		}
+		LinkCrawler crawler = options.isTestLinks() && options.getProbeCrawlRate() > 0 ? newCrawler(options) : null;
+		try {
+			int result = export(options, crawler);
+			watch(options, crawler);
+			return result;
+		} finally {
+			if (crawler != null) {
+				crawler.close();
+			}
+		}
+	}
+
+	/*
+	 * @param crawler probes links in the background, or null to probe links
+	 * when exporting
+	 */
+	private static int export(ActiveOptions options, LinkCrawler crawler) throws ConfigurationException, IOException {
 		
 		// init
 		BrowserType browserType = options.getBrowserType();
 		File targetFolder = options.getTargetFolder();
 		boolean isTree = options.isTree();
 		boolean isForceExport = options.isForceExport();
-		LinkTester linkTester = new LinkTester(options.isTestLinks());
-		Collection<File> files;
-		File timestampFile = new File(targetFolder, BookmarkExporter.class.getName()+".timestamp");
-		long timestamp = timestampFile.lastModified(); // returns 0 if not existing
-
-		
-		// read and write 
-		if (options.isConfigurationFileSpecified()) {
-			File cfgFile = options.getConfigurationFile();
-			Log.log(String.format("<EXPORT> to: %s | configured by: %s", targetFolder , cfgFile.getAbsolutePath()));
-			ConfiguredBookmarkProcessor configuredBookmarkProcessor = new ConfiguredBookmarkProcessor(browserType, targetFolder, isTree, isForceExport, timestamp, linkTester);
-			files = configuredBookmarkProcessor.process(cfgFile);
+		boolean useSnapshot = options.isSnapshot();
+		boolean useCompact = options.isCompact();
+		int parallelism = options.getParallelism();
+		ProbeCache probeCache = crawler != null ? crawler.getCache() : options.isTestLinks() ? newProbeCache(options) : null;
+		LinkProber prober = newProber(options, probeCache);
+		if (crawler != null) {
+			prober.setCacheOnly(true);
 		} else {
-			Log.log(String.format("<EXPORT> to: %s", targetFolder));
-			BookmarkProcessor bookmarkProcessor = new BookmarkProcessor(browserType, targetFolder, isTree, isForceExport, timestamp,linkTester);
-			files = bookmarkProcessor.process();
+			prober.setBudget(options.getProbeBudget());
 		}
-		Log.log("</EXPORT> Wrote " + files.size() + " files ("+linkTester.getNumberOfErrors()+" invalid links ignored)");
+		LinkTester linkTester = new LinkTester(options.isTestLinks(), prober, options.getProbeFailures());
+		linkTester.setCrawler(crawler);
+		Collection<File> files;
+		ExportState state = new ExportState(targetFolder);
+
+		try {
+			// read and write 
+			if (options.isConfigurationFileSpecified()) {
+				File cfgFile = options.getConfigurationFile();
+				Log.log(String.format("<EXPORT> to: %s | configured by: %s", targetFolder , cfgFile.getAbsolutePath()));
+				ConfiguredBookmarkProcessor configuredBookmarkProcessor = new ConfiguredBookmarkProcessor(browserType, targetFolder, isTree, isForceExport, useSnapshot, useCompact, parallelism, state, linkTester);
+				files = configuredBookmarkProcessor.process(cfgFile);
+			} else {
+				Log.log(String.format("<EXPORT> to: %s", targetFolder));
+				BookmarkProcessor bookmarkProcessor = new BookmarkProcessor(browserType, targetFolder, isTree, isForceExport, useSnapshot, useCompact, parallelism, state, linkTester);
+				files = bookmarkProcessor.process();
+			}
+			Log.log("</EXPORT> Wrote " + files.size() + " files ("+linkTester.getNumberOfErrors()+" invalid links ignored)");
 		
-		// report errors
-		if (linkTester.isEnabled()) {
-			int errors = linkTester.getNumberOfErrors();
-			int redirects = linkTester.getNumberOfMoved();
-			if (errors+redirects>0) {
-				String hdr = String.format("Found %d bad links and %d redirected links:", Integer.valueOf(errors), Integer.valueOf(redirects));
-				Log.warn(linkTester.dump(hdr));
+			// report errors
+			if (linkTester.isEnabled()) {
+				int errors = linkTester.getNumberOfErrors();
+				int redirects = linkTester.getNumberOfMoved();
+				int failing = linkTester.getNumberOfFailing();
+				if (errors+redirects+failing>0) {
+					String hdr = String.format("Found %d bad links, %d redirected links and %d failing links:", Integer.valueOf(errors), Integer.valueOf(redirects), Integer.valueOf(failing));
+					Log.warn(linkTester.dump(hdr));
+				} else {
+					Log.log("(no bad links found)");
+				}
 			} else {
-				Log.log("(no bad links found)");
+				Log.log("(links not tested)");
 			}
-		} else {
-			Log.log("(links not tested)");
-		}
 		
-		// upload
-		if (options.isUpload() && !files.isEmpty()) {
-			URL url = options.getUploadURL();
-			FileUploader publisher = new FileUploader(url);
-			publisher.upload(files);
-		}
+			// upload
+			if (options.isUpload() && !files.isEmpty()) {
+				URL url = options.getUploadURL();
+				FileUploader publisher = new FileUploader(url);
+				publisher.upload(files);
+			}
 		
-		// mark time if ending happy
-		timestamp(timestampFile);
+			// mark time if ending happy
+			state.store();
+			return 0;
+		} finally {
+			if (probeCache != null && crawler == null) {
+				probeCache.close();
+			}
+		}
+	}
+
+	private static ProbeCache newProbeCache(ActiveOptions options) {
+		File file = new File(options.getTargetFolder(), BookmarkExporter.class.getName() + ".probes");
+		return new ProbeCache(file, options.getProbeTTL(), options.getProbeErrorTTL());
+	}
+
+	private static LinkProber newProber(ActiveOptions options, ProbeCache probeCache) {
+		HostTimeouts timeouts = new HostTimeouts(probeCache, LinkConnector.DEFAULT_TIMEOUT, (int) options.getProbeTimeoutMin(), (int) options.getProbeTimeoutMax());
+		LinkConnector connector = new LinkConnector(timeouts, options.getProbeHedge());
+		LinkProber prober = new LinkProber(connector, LinkProber.DEFAULT_WORKERS, probeCache);
+		if (options.getProbeQueue() != null) {
+			prober.setQueue(new ProbeQueue(options.getProbeQueue()));
+		}
+		return prober;
+	}
+
+	/*
+	 * Probe links queued by coordinators (exports with a probe queue), until
+	 * none has been queued for a while. Results are written to the queue, where
+	 * the coordinator collects them.
+	 */
+	private static int work(ActiveOptions options) {
+		ProbeQueue queue = new ProbeQueue(options.getProbeWorkerQueue());
+		HostTimeouts timeouts = new HostTimeouts(null, LinkConnector.DEFAULT_TIMEOUT, (int) options.getProbeTimeoutMin(), (int) options.getProbeTimeoutMax());
+		LinkConnector connector = new LinkConnector(timeouts, options.getProbeHedge());
+		try {
+			new ProbeWorker(queue, connector, LinkProber.DEFAULT_WORKERS).run(WORKER_IDLE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 		return 0;
 	}
 
-	private static void timestamp(File timestampFile) throws IOException {
-		timestampFile.createNewFile();  // does nothing if file already exists
-		timestampFile.setLastModified(System.currentTimeMillis());
+	/*
+	 * The crawler owns the probe cache, exports only read it. Until an export
+	 * finds the links, it crawls those probed before.
+	 */
+	private static LinkCrawler newCrawler(ActiveOptions options) {
+		ProbeCache probeCache = newProbeCache(options);
+		LinkCrawler crawler = new LinkCrawler(newProber(options, probeCache), probeCache, options.getProbeCrawlRate());
+		crawler.setLinks(probeCache.getLinks());
+		return crawler.start();
+	}
+
+	/*
+	 * Export again in this JVM whenever bookmarks change, until interrupted. Each
+	 * export gets fresh state and link tester, failures are logged and we keep
+	 * watching. With a crawler, each export hands it the links found.
+	 */
+	private static void watch(ActiveOptions options, LinkCrawler crawler) throws IOException {
+		BrowserType browserType = options.getBrowserType();
+		File inputFile = BookmarkReader.Factory.makeReader(browserType).getInputFile();
+		FileFilter filter = browserType==BrowserType.FIREFOX 
+				? JsonFilter.instance() // a new backup file is added
+				: new NameFilter(inputFile.getName());
+		BookmarkWatcher watcher = new BookmarkWatcher(WATCH_DEBOUNCE).register(inputFile.getAbsoluteFile().getParentFile(), filter);
+		if (options.isConfigurationFileSpecified()) {
+			File cfgFile = options.getConfigurationFile().getAbsoluteFile();
+			watcher.register(cfgFile.getParentFile(), new NameFilter(cfgFile.getName()));
+		}
+		try {
+			watcher.watch(() -> {
+				try {
+					export(options, crawler);
+				} catch (ConfigurationException | IOException | RuntimeException e) {
+					Log.error("Export failed, waiting for next change: " + e);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class NameFilter implements FileFilter {
+		private final String name;
+
+		private NameFilter(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public boolean accept(File pathname) {
+			return pathname.getName().equals(name);
+		}
+
+		@Override
+		public String toString() {
+			return "'" + name + "'";
+		}
 	}
 
 	/**
@@ -118,6 +256,8 @@ public class BookmarkExporter {
 				result = commandLine.printHelp() ;
 			} else if (commandLine.isVersion()) {
 				result = commandLine.printVersion();
+			} else if (commandLine.isProbeWorker()) {
+				result = work(commandLine);
 			} else {
 				result = run(commandLine);
 				Log.log(String.format("Done! [%s]", new VersionInfo().getVersionString()));
@@ -18,6 +18,7 @@ package se.p2r.foxport;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.function.Predicate;
 
 import se.p2r.foxport.chrome.ChromeReader;
 import se.p2r.foxport.firefox.FirefoxReader;
@@ -29,6 +30,18 @@ import se.p2r.foxport.util.BrowserType;
  */
 public interface BookmarkReader {
 
+	/**
+	 * How a reader parses the bookmarks file and what it builds.
+	 */
+	enum Mode {
+		/** Gson reflection to browser specific beans (no projection) */
+		REFLECTION,
+		/** token streaming to browser specific beans */
+		STREAMING,
+		/** token streaming to a {@link se.p2r.foxport.compact.CompactBookmarkTree} (for very large files) */
+		COMPACT
+	}
+
 	/**
 	 * Load bookmarks file and return the root bookmark for the tree that should be
 	 * exported, typically the 'bookmarks' container, as opposed to the 'toolbar'
@@ -38,18 +51,39 @@ public interface BookmarkReader {
 	 */
 	Bookmark load();
 
+	/**
+	 * Load bookmarks file like {@link #load()}, but only materialize the children
+	 * of the root that are accepted by the supplied filter (projection). Readers
+	 * may skip the subtrees of rejected children without building them, or ignore
+	 * the filter and return the complete tree; callers must still select what to
+	 * export from the returned root.
+	 * <p>
+	 * The filter may be called on a node whose children have not been read yet, it
+	 * should only look at the node's own attributes (name, description, export
+	 * tag).
+	 * </p>
+	 * 
+	 * @param rootFilter accepts the root children that may contain bookmarks to export
+	 * @return {@link Bookmark} (never <code>null</code>)
+	 */
+	Bookmark load(Predicate<? super Bookmark> rootFilter);
+
 	public final class Factory {
 
 		private Factory() {
 		}
 
 		public static BookmarkReader makeReader(BrowserType browserType) throws IOException {
+			return makeReader(browserType, Mode.STREAMING);
+		}
+
+		public static BookmarkReader makeReader(BrowserType browserType, Mode mode) throws IOException {
 			switch (browserType) {
 			case FIREFOX:
-				return new FirefoxReader();
+				return new FirefoxReader(mode);
 
 			case CHROME:
-				return new ChromeReader();
+				return new ChromeReader(mode);
 
 			default:
 				throw new IllegalArgumentException("Unexpected browsertype: "+browserType);
@@ -65,4 +99,20 @@ public interface BookmarkReader {
 	 */
 	long getTimestamp();
 
+	/**
+	 * Get a key that changes when the exportable contents of the bookmark file
+	 * change, but not when the browser merely rewrites the file (sync, visit
+	 * metadata etc). Should be cheap compared to {@link #load()}; it must not
+	 * build the tree.
+	 * 
+	 * @return String, or <code>null</code> if not supported (use {@link #getTimestamp()})
+	 */
+	String getContentKey();
+
+	/**
+	 * Get the bookmark file read by this reader.
+	 * @return File
+	 */
+	File getInputFile();
+
 }
@@ -40,6 +40,14 @@ public class ChromeBookmark implements Bookmark {
 		 private String description; // "Detta är en länk till Handelsbanken",
 		 @SerializedName("stars.version")		
 		 private String version; // "crx.2.2016.128.11729"
+
+		 private MetaInfo() {
+			 // for Gson
+		 }
+
+		 private MetaInfo(String description) {
+			 this.description = description;
+		 }
 	}
 
 	private long id; // "1"
@@ -60,6 +68,24 @@ public class ChromeBookmark implements Bookmark {
 
 	private ExportTagParser tagParser;
 
+	ChromeBookmark() {
+		// for Gson
+	}
+
+	/**
+	 * Constructor for parsers that do not use reflection.
+	 * 
+	 * @see ChromeStreamParser
+	 */
+	ChromeBookmark(long id, String name, String type, String url, List<ChromeBookmark> children, String description) {
+		this.id = id;
+		this.name = name;
+		this.type = type;
+		this.url = url;
+		this.children = children;
+		this.metaInfo = description == null ? null : new MetaInfo(description);
+	}
+
 	@Override
 	public List<? extends Bookmark> getChildren() {
 		return children == null ? Collections.emptyList() : children;
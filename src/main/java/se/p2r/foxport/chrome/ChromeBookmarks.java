@@ -34,6 +34,23 @@ public class ChromeBookmarks {
 	private String checksum;
 	private int version;
 	private Roots roots;
+
+	ChromeBookmarks() {
+		// for Gson
+	}
+
+	/**
+	 * Constructor for parsers that do not use reflection.
+	 * 
+	 * @see ChromeStreamParser
+	 */
+	ChromeBookmarks(String checksum, int version, ChromeBookmark bookmarkBar, ChromeBookmark other) {
+		this.checksum = checksum;
+		this.version = version;
+		this.roots = new Roots();
+		this.roots.bookmarkBar = bookmarkBar;
+		this.roots.other = other;
+	}
 	
 	public String getChecksum() {
 		return checksum;
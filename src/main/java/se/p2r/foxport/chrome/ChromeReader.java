@@ -18,16 +18,20 @@ package se.p2r.foxport.chrome;
 import static se.p2r.foxport.util.Utils.*;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.file.Files;
+import java.util.function.Predicate;
 
-import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import se.p2r.foxport.Bookmark;
 import se.p2r.foxport.BookmarkReader;
 import se.p2r.foxport.util.Log;
 
@@ -42,9 +46,24 @@ import se.p2r.foxport.util.Log;
 public class ChromeReader implements BookmarkReader {
 
 	private final File inputFile;
+	private final Mode mode;
 
 	public ChromeReader() throws IOException {
-		this.inputFile = findInputFile();
+		this(Mode.STREAMING);
+	}
+
+	public ChromeReader(Mode mode) throws IOException {
+		this(findInputFile(), mode);
+	}
+
+	/**
+	 * @param inputFile the Chrome 'Bookmarks' file
+	 * @param mode      how to parse and what to build
+	 * @see ChromeStreamParser
+	 */
+	public ChromeReader(File inputFile, Mode mode) {
+		this.inputFile = inputFile;
+		this.mode = mode;
 	}
 
 	private static File findInputFile() throws IOException {
@@ -58,8 +77,18 @@ public class ChromeReader implements BookmarkReader {
 	}
 
 	@Override
-	public ChromeBookmark load() {
-		ChromeBookmarks contents = parseBookmarksFile();
+	public Bookmark load() {
+		return load(null);
+	}
+
+	@Override
+	public Bookmark load(Predicate<? super Bookmark> rootFilter) {
+		if (mode == Mode.COMPACT) {
+			Bookmark root = parse(rootFilter, ChromeStreamParser::parseCompact);
+			assert root != null : "No bookmarks produced from file: "+inputFile;
+			return root;
+		}
+		ChromeBookmarks contents = parseBookmarksFile(rootFilter);
 		
 		assert contents!=null : "No bookmarks produced from file: "+inputFile;
 		assert contents.getRoots() !=null : "No roots produced from file: "+inputFile;
@@ -69,16 +98,57 @@ public class ChromeReader implements BookmarkReader {
 		return contents.getOther();
 	}
 	
-	private ChromeBookmarks parseBookmarksFile() {
+	private ChromeBookmarks parseBookmarksFile(Predicate<? super Bookmark> rootFilter) {
+		if (mode == Mode.REFLECTION) {
+			return read(reader -> new GsonBuilder().create().fromJson(reader, ChromeBookmarks.class));
+		}
+		return parse(rootFilter, ChromeStreamParser::parse);
+	}
+
+	/*
+	 * A projected parse takes two passes (see ChromeStreamParser). Both run over a
+	 * single read of the file: the scan records accepted children by position, so
+	 * the passes must see the same contents even if Chrome rewrites the file in
+	 * between.
+	 */
+	private <T> T parse(Predicate<? super Bookmark> rootFilter, ParserTask<T> task) {
+		ChromeStreamParser parser = new ChromeStreamParser();
+		if (rootFilter == null) {
+			return read(reader -> task.parse(parser, reader));
+		}
+		byte[] contents;
+		try {
+			contents = Files.readAllBytes(inputFile.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read input file: " + inputFile, e);
+		}
+		read(contents, reader -> {
+			parser.scan(reader, rootFilter);
+			return null;
+		});
+		return read(contents, reader -> task.parse(parser, reader));
+	}
+
+	private interface ParseTask<T> {
+		T parse(Reader reader) throws IOException;
+	}
+
+	private interface ParserTask<T> {
+		T parse(ChromeStreamParser parser, Reader reader) throws IOException;
+	}
+
+	private <T> T read(ParseTask<T> task) {
+		return read(null, task);
+	}
+
+	/* contents: the file as already read, or null to read it from disk */
+	private <T> T read(byte[] contents, ParseTask<T> task) {
 		Reader reader = null;
 		try {
-			FileInputStream fis = new FileInputStream(inputFile);
-			InputStreamReader isr = new InputStreamReader(fis, ENCODING_JSON);
+			InputStream is = contents == null ? new FileInputStream(inputFile) : new ByteArrayInputStream(contents);
+			InputStreamReader isr = new InputStreamReader(is, ENCODING_JSON);
 			reader = new BufferedReader(isr);
-			
-			Gson gson = new GsonBuilder().create();
-			ChromeBookmarks bookmarks = gson.fromJson(reader, ChromeBookmarks.class);
-			return bookmarks;
+			return task.parse(reader);
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to parse input file: " + inputFile, e);
 		} finally {
@@ -97,4 +167,14 @@ public class ChromeReader implements BookmarkReader {
 		return inputFile.lastModified();
 	}
 
+	@Override
+	public String getContentKey() {
+		return read(ChromeStreamParser::readContentKey);
+	}
+
+	@Override
+	public File getInputFile() {
+		return inputFile;
+	}
+
 }
@@ -0,0 +1,386 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.chrome;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.compact.CompactBookmark;
+import se.p2r.foxport.compact.CompactBookmarkTree;
+import se.p2r.foxport.util.Utils;
+
+/**
+ * Token streaming parser for the Chrome bookmarks file. Builds the same tree as
+ * Gson reflection would (see {@link ChromeReader}), but reads nodes straight
+ * from the token stream and skips everything we never use (dates,
+ * <code>sync_metadata</code>, the <code>synced</code> root, visit metadata etc)
+ * without materializing it.
+ * <p>
+ * For projection, only the children of the 'other' root that are accepted by a
+ * filter are read. Chrome writes <code>children</code> before
+ * <code>name</code> and <code>meta_info</code>, so the decision cannot be made
+ * in a single pass: {@link #scan(Reader, Predicate)} first walks the children of
+ * the root, skipping their subtrees, and records which are accepted;
+ * {@link #parse(Reader)} then reads those and skips the rest (and the bookmark
+ * bar) with {@link JsonReader#skipValue()}.
+ * </p>
+ * <p>
+ * {@link #parseCompact(Reader)} emits a {@link CompactBookmarkTree} instead:
+ * each node is added to the tree as it is read and only a childless
+ * {@link ChromeBookmark} is built to resolve its attributes.
+ * </p>
+ * <p>
+ * {@link #readContentKey(Reader)} is a cheap pre-parse for change detection,
+ * building nothing.
+ * </p>
+ * 
+ * @author peer
+ *
+ */
+class ChromeStreamParser {
+
+	private static final String TYPE_URL = "url";
+	private static final String TYPE_FOLDER = "folder";
+
+	private BitSet accepted = null; // children of 'other' to read, null for all
+	private CompactBookmarkTree.Builder builder = null; // set while parsing to a compact tree
+
+	/**
+	 * First pass of a projected parse: find the children of the 'other' root that
+	 * are accepted by the filter. Subtrees are skipped, the filter sees nodes
+	 * without children.
+	 * 
+	 * @param reader
+	 * @param filter
+	 * @throws IOException
+	 */
+	void scan(Reader reader, Predicate<? super Bookmark> filter) throws IOException {
+		JsonReader in = new JsonReader(reader);
+		in.setLenient(true); // as Gson does
+		BitSet result = new BitSet();
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("roots")) {
+				in.beginObject();
+				while (in.hasNext()) {
+					if (in.nextName().equals("other") && in.peek() != JsonToken.NULL) {
+						scanChildren(in, filter, result);
+						this.accepted = result;
+						return; // don't care about the rest
+					}
+					in.skipValue();
+				}
+				in.endObject();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		this.accepted = result;
+	}
+
+	private void scanChildren(JsonReader in, Predicate<? super Bookmark> filter, BitSet result) throws IOException {
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("children") && in.peek() != JsonToken.NULL) {
+				in.beginArray();
+				for (int i = 0; in.hasNext(); i++) {
+					ChromeBookmark shell = nextBookmark(in, false, null, -1);
+					if (shell != null && filter.test(shell)) {
+						result.set(i);
+					}
+				}
+				in.endArray();
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+	}
+
+	/**
+	 * Parse the file. If preceded by {@link #scan(Reader, Predicate)}, only the
+	 * accepted children of the 'other' root are read.
+	 * 
+	 * @param reader
+	 * @return {@link ChromeBookmarks}
+	 * @throws IOException
+	 */
+	ChromeBookmarks parse(Reader reader) throws IOException {
+		return parseRoots(reader);
+	}
+
+	/**
+	 * Parse the file to a compact tree. Only the 'other' root is read, which is
+	 * the root of the returned tree. May be preceded by
+	 * {@link #scan(Reader, Predicate)}.
+	 * 
+	 * @param reader
+	 * @return root of the 'other' tree, or <code>null</code> if there is none
+	 * @throws IOException
+	 */
+	CompactBookmark parseCompact(Reader reader) throws IOException {
+		builder = new CompactBookmarkTree.Builder();
+		try {
+			parseRoots(reader);
+			return builder.build().getRoot();
+		} finally {
+			builder = null;
+		}
+	}
+
+	private ChromeBookmarks parseRoots(Reader reader) throws IOException {
+		JsonReader in = new JsonReader(reader);
+		in.setLenient(true); // as Gson does
+		String checksum = null;
+		int version = 0;
+		ChromeBookmark bookmarkBar = null;
+		ChromeBookmark other = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "checksum":
+				checksum = nextString(in);
+				break;
+			case "version":
+				version = in.nextInt();
+				break;
+			case "roots":
+				in.beginObject();
+				while (in.hasNext()) {
+					switch (in.nextName()) {
+					case "bookmark_bar":
+						if (accepted == null && builder == null) {
+							bookmarkBar = nextBookmark(in, true, null, -1);
+						} else {
+							in.skipValue(); // not exported (and the compact tree has one root only)
+						}
+						break;
+					case "other":
+						other = nextBookmark(in, true, accepted, -1);
+						break;
+					default:
+						in.skipValue();
+					}
+				}
+				in.endObject();
+				break;
+			default:
+				in.skipValue(); // sync_metadata etc
+			}
+		}
+		in.endObject();
+		return new ChromeBookmarks(checksum, version, bookmarkBar, other);
+	}
+
+	/**
+	 * Read a key that changes when the exportable contents of the file change,
+	 * without building the tree. The key combines the checksum Chrome writes at
+	 * the head of the file with a digest of the descriptions: Chrome's checksum
+	 * covers ids, names, URLs and structure, but not <code>meta_info</code>, where
+	 * descriptions (and export tags) live. Visit metadata, dates and
+	 * <code>sync_metadata</code> are skipped, so they do not affect the key.
+	 * 
+	 * @param reader
+	 * @return key, or <code>null</code> if the file has no checksum
+	 * @throws IOException
+	 */
+	static String readContentKey(Reader reader) throws IOException {
+		JsonReader in = new JsonReader(reader);
+		in.setLenient(true); // as Gson does
+		String checksum = null;
+		MessageDigest digest = Utils.newSHA256();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "checksum":
+				checksum = nextString(in);
+				break;
+			case "roots":
+				in.beginObject();
+				while (in.hasNext()) {
+					in.nextName();
+					digestDescriptions(in, digest);
+				}
+				in.endObject();
+				break;
+			default:
+				in.skipValue(); // sync_metadata etc
+			}
+		}
+		in.endObject();
+		return checksum == null ? null : checksum + ":" + Utils.toHex(digest.digest());
+	}
+
+	private static void digestDescriptions(JsonReader in, MessageDigest digest) throws IOException {
+		if (in.peek() != JsonToken.BEGIN_OBJECT) {
+			in.skipValue();
+			return;
+		}
+		String id = null;
+		String description = null;
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "id":
+				id = nextString(in);
+				break;
+			case "meta_info":
+				description = nextDescription(in);
+				break;
+			case "children":
+				if (in.peek() == JsonToken.BEGIN_ARRAY) {
+					in.beginArray();
+					while (in.hasNext()) {
+						digestDescriptions(in, digest);
+					}
+					in.endArray();
+				} else {
+					in.skipValue();
+				}
+				break;
+			default:
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		if (description != null) {
+			digest.update((id + "=" + description + "\n").getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/* When building a compact tree, the node is added to it and returned without children */
+	private ChromeBookmark nextBookmark(JsonReader in, boolean withChildren, BitSet selectedChildren, int parentNode) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		int node = builder == null ? -1 : builder.begin(parentNode);
+		long id = 0;
+		String name = null;
+		String type = null;
+		String url = null;
+		String description = null;
+		List<ChromeBookmark> children = null;
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "id":
+				id = in.nextLong(); // quoted in file, e.g. "13"
+				break;
+			case "name":
+				name = nextString(in);
+				break;
+			case "type":
+				type = canonicalType(nextString(in));
+				break;
+			case "url":
+				url = nextString(in);
+				break;
+			case "meta_info":
+				description = nextDescription(in);
+				break;
+			case "children":
+				if (withChildren) {
+					children = nextChildren(in, selectedChildren, node);
+				} else {
+					in.skipValue();
+				}
+				break;
+			default:
+				in.skipValue(); // date_added, date_modified, guid, sync_transaction_version ...
+			}
+		}
+		in.endObject();
+		ChromeBookmark result = new ChromeBookmark(id, name, type, url, children, description);
+		if (builder != null) {
+			builder.end(node, result);
+		}
+		return result;
+	}
+
+	/* Return null when building a compact tree, the children are added to it */
+	private List<ChromeBookmark> nextChildren(JsonReader in, BitSet selected, int parentNode) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		List<ChromeBookmark> children = builder == null ? new ArrayList() : null;
+		in.beginArray();
+		for (int i = 0; in.hasNext(); i++) {
+			if (selected == null || selected.get(i)) {
+				ChromeBookmark child = nextBookmark(in, true, null, parentNode);
+				if (children != null) {
+					children.add(child);
+				}
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endArray();
+		return children;
+	}
+
+	private static String nextDescription(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		String description = null;
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("stars.description")) {
+				description = nextString(in);
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		return description;
+	}
+
+	private static String nextString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	// share the type constants rather than keeping one string per node
+	private static String canonicalType(String type) {
+		if (TYPE_URL.equals(type)) {
+			return TYPE_URL;
+		}
+		if (TYPE_FOLDER.equals(type)) {
+			return TYPE_FOLDER;
+		}
+		return type;
+	}
+
+}
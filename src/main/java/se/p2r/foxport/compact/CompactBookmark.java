@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.compact;
+
+import java.util.List;
+
+import se.p2r.foxport.Bookmark;
+
+/**
+ * A view of one node in a {@link CompactBookmarkTree}. Instances are created on
+ * demand and hold no state of their own; two views of the same node are equal.
+ * 
+ * @author peer
+ *
+ */
+public final class CompactBookmark implements Bookmark {
+
+	private final CompactBookmarkTree tree;
+	private final int node;
+
+	CompactBookmark(CompactBookmarkTree tree, int node) {
+		this.tree = tree;
+		this.node = node;
+	}
+
+	@Override
+	public List<CompactBookmark> getChildren() {
+		return tree.getChildren(node);
+	}
+
+	@Override
+	public String getName() {
+		return tree.getName(node);
+	}
+
+	@Override
+	public String getTitle() {
+		return tree.getTitle(node);
+	}
+
+	@Override
+	public boolean isLink() {
+		return tree.isLink(node);
+	}
+
+	@Override
+	public boolean isContainer() {
+		return tree.isContainer(node);
+	}
+
+	@Override
+	public boolean isTaggedForExport() {
+		return getExportId() != null;
+	}
+
+	@Override
+	public String getExportId() {
+		return tree.getExportId(node);
+	}
+
+	@Override
+	public boolean hasChildren() {
+		return tree.hasChildren(node);
+	}
+
+	@Override
+	public String getUri() {
+		return tree.getUri(node);
+	}
+
+	@Override
+	public String getDescription() {
+		return tree.getDescription(node);
+	}
+
+	/**
+	 * @return the parent, or <code>null</code> for the root
+	 */
+	public CompactBookmark getParent() {
+		int parent = tree.getParent(node);
+		return parent < 0 ? null : new CompactBookmark(tree, parent);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(tree) + node;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof CompactBookmark)) {
+			return false;
+		}
+		CompactBookmark other = (CompactBookmark) obj;
+		return other.tree == tree && other.node == node;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactBookmark [name=" + getName() + ", hasChildren()=" + hasChildren() + "]";
+	}
+
+}
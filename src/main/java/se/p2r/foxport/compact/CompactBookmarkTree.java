@@ -0,0 +1,278 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.compact;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import se.p2r.foxport.Bookmark;
+
+/**
+ * <p>
+ * A bookmark tree stored as a flat, indexed structure of arrays rather than as
+ * one object per node: int arrays link each node to its parent, first child and
+ * next sibling, a byte array holds the node kind, and names, URLs and
+ * descriptions are kept in deduplicated string pools. Nodes are exposed through
+ * the {@link Bookmark} interface by lightweight {@link CompactBookmark} views.
+ * </p>
+ * <p>
+ * Nodes carry resolved attributes (title and export id as parsed from tags
+ * etc), so the tree looks the same regardless of browser type. Use
+ * {@link Builder} to create a tree.
+ * </p>
+ * 
+ * @author peer
+ *
+ */
+public class CompactBookmarkTree {
+
+	public static final byte OTHER = 0; // separators etc
+	public static final byte LINK = 1;
+	public static final byte CONTAINER = 2;
+
+	private static final int NONE = -1;
+
+	private final int size;
+	private final int[] parent;
+	private final int[] firstChild;
+	private final int[] nextSibling;
+	private final byte[] kind;
+	private final int[] name;
+	private final int[] title;
+	private final int[] exportId;
+	private final int[] uri;
+	private final int[] description;
+	private final StringPool names;
+	private final StringPool uris;
+	private final StringPool descriptions;
+
+	private CompactBookmarkTree(Builder b) {
+		this.size = b.size;
+		this.parent = Arrays.copyOf(b.parent, size);
+		this.firstChild = Arrays.copyOf(b.firstChild, size);
+		this.nextSibling = Arrays.copyOf(b.nextSibling, size);
+		this.kind = Arrays.copyOf(b.kind, size);
+		this.name = Arrays.copyOf(b.name, size);
+		this.title = Arrays.copyOf(b.title, size);
+		this.exportId = Arrays.copyOf(b.exportId, size);
+		this.uri = Arrays.copyOf(b.uri, size);
+		this.description = Arrays.copyOf(b.description, size);
+		this.names = b.names;
+		this.uris = b.uris;
+		this.descriptions = b.descriptions;
+		names.freeze();
+		uris.freeze();
+		descriptions.freeze();
+	}
+
+	/**
+	 * @param bookmark
+	 * @return {@link #LINK}, {@link #CONTAINER} or {@link #OTHER}
+	 */
+	public static byte kindOf(Bookmark bookmark) {
+		if (bookmark.isLink()) {
+			return LINK;
+		}
+		return bookmark.isContainer() ? CONTAINER : OTHER;
+	}
+
+	/**
+	 * @return the first node added, or <code>null</code> if the tree is empty
+	 */
+	public CompactBookmark getRoot() {
+		return size == 0 ? null : new CompactBookmark(this, 0);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	int getParent(int node) {
+		return parent[node];
+	}
+
+	boolean isLink(int node) {
+		return kind[node] == LINK;
+	}
+
+	boolean isContainer(int node) {
+		return kind[node] == CONTAINER;
+	}
+
+	String getName(int node) {
+		return names.get(name[node]);
+	}
+
+	String getTitle(int node) {
+		return names.get(title[node]);
+	}
+
+	String getExportId(int node) {
+		return names.get(exportId[node]);
+	}
+
+	String getUri(int node) {
+		return uris.get(uri[node]);
+	}
+
+	String getDescription(int node) {
+		return descriptions.get(description[node]);
+	}
+
+	boolean hasChildren(int node) {
+		return firstChild[node] != NONE;
+	}
+
+	List<CompactBookmark> getChildren(int node) {
+		int count = 0;
+		for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			count++;
+		}
+		int[] children = new int[count];
+		int i = 0;
+		for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			children[i++] = child;
+		}
+		return new AbstractList<CompactBookmark>() {
+
+			@Override
+			public CompactBookmark get(int index) {
+				return new CompactBookmark(CompactBookmarkTree.this, children[index]);
+			}
+
+			@Override
+			public int size() {
+				return children.length;
+			}
+		};
+	}
+
+	/**
+	 * Builds a tree in preorder. A node is started with {@link #begin(int)},
+	 * which links it as the last child of its parent, and completed with
+	 * {@link #end(int, byte, String, String, String, String, String)} once its
+	 * attributes are known (its children may be added in between).
+	 */
+	public static class Builder {
+
+		private int size = 0;
+		private int[] parent = new int[1024];
+		private int[] firstChild = new int[1024];
+		private int[] nextSibling = new int[1024];
+		private int[] lastChild = new int[1024]; // only while building
+		private byte[] kind = new byte[1024];
+		private int[] name = new int[1024];
+		private int[] title = new int[1024];
+		private int[] exportId = new int[1024];
+		private int[] uri = new int[1024];
+		private int[] description = new int[1024];
+		private final StringPool names = new StringPool();
+		private final StringPool uris = new StringPool();
+		private final StringPool descriptions = new StringPool();
+
+		/**
+		 * Start a node.
+		 * 
+		 * @param parentNode the parent, or a negative number for the root
+		 * @return the new node
+		 */
+		public int begin(int parentNode) {
+			if (size == parent.length) {
+				grow();
+			}
+			int node = size++;
+			parent[node] = parentNode < 0 ? NONE : parentNode;
+			firstChild[node] = NONE;
+			nextSibling[node] = NONE;
+			lastChild[node] = NONE;
+			if (parentNode >= 0) {
+				if (firstChild[parentNode] == NONE) {
+					firstChild[parentNode] = node;
+				} else {
+					nextSibling[lastChild[parentNode]] = node;
+				}
+				lastChild[parentNode] = node;
+			}
+			return node;
+		}
+
+		/**
+		 * Complete a node.
+		 */
+		public void end(int node, byte nodeKind, String nodeName, String nodeTitle, String nodeUri, String nodeDescription, String nodeExportId) {
+			kind[node] = nodeKind;
+			name[node] = names.add(nodeName);
+			title[node] = names.add(nodeTitle);
+			exportId[node] = names.add(nodeExportId);
+			uri[node] = uris.add(nodeUri);
+			description[node] = descriptions.add(nodeDescription);
+		}
+
+		/**
+		 * Complete a node with the attributes of a bookmark, typically one built
+		 * without children by a parser. Only links keep their URI.
+		 */
+		public void end(int node, Bookmark attributes) {
+			String nodeUri = attributes.isLink() ? attributes.getUri() : null;
+			end(node, kindOf(attributes), attributes.getName(), attributes.getTitle(), nodeUri, attributes.getDescription(), attributes.getExportId());
+		}
+
+		/**
+		 * Remove the most recently started child of its parent, with all its
+		 * descendants. Used to drop nodes rejected by a projection filter.
+		 * 
+		 * @param node must be the last child of its parent
+		 */
+		public void discard(int node) {
+			int parentNode = parent[node];
+			if (parentNode != NONE) {
+				assert lastChild[parentNode] == node : "Not the last child: " + node;
+				if (firstChild[parentNode] == node) {
+					firstChild[parentNode] = NONE;
+					lastChild[parentNode] = NONE;
+				} else {
+					int previous = firstChild[parentNode];
+					while (nextSibling[previous] != node) {
+						previous = nextSibling[previous];
+					}
+					nextSibling[previous] = NONE;
+					lastChild[parentNode] = previous;
+				}
+			}
+			size = node; // node and its descendants are the last ones added
+		}
+
+		public CompactBookmarkTree build() {
+			return new CompactBookmarkTree(this);
+		}
+
+		private void grow() {
+			int capacity = size + (size >> 1);
+			parent = Arrays.copyOf(parent, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			lastChild = Arrays.copyOf(lastChild, capacity);
+			kind = Arrays.copyOf(kind, capacity);
+			name = Arrays.copyOf(name, capacity);
+			title = Arrays.copyOf(title, capacity);
+			exportId = Arrays.copyOf(exportId, capacity);
+			uri = Arrays.copyOf(uri, capacity);
+			description = Arrays.copyOf(description, capacity);
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.compact;
+
+import java.util.Arrays;
+
+/**
+ * Deduplicating string pool. Strings are added while building and referenced
+ * by index. The lookup is an open addressing table of indexes, so that no
+ * entry or boxed index objects are created per string; {@link #freeze()} drops
+ * it.
+ * 
+ * @author peer
+ *
+ */
+class StringPool {
+
+	static final int NULL = -1;
+
+	private String[] strings = new String[256];
+	private int size = 0;
+	private int[] table = new int[512]; // index + 1, 0 is empty
+	private int[] hashes = new int[512]; // per slot, to avoid touching strings that cannot match
+
+	int add(String s) {
+		if (s == null) {
+			return NULL;
+		}
+		int hash = hash(s);
+		int mask = table.length - 1;
+		for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+			int entry = table[slot];
+			if (entry == 0) {
+				table[slot] = append(s) + 1;
+				hashes[slot] = hash;
+				if (size * 2 > table.length) {
+					rehash();
+				}
+				return size - 1;
+			}
+			if (hashes[slot] == hash && strings[entry - 1].equals(s)) {
+				return entry - 1;
+			}
+		}
+	}
+
+	String get(int index) {
+		return index == NULL ? null : strings[index];
+	}
+
+	int size() {
+		return size;
+	}
+
+	void freeze() {
+		strings = Arrays.copyOf(strings, size);
+		table = null;
+		hashes = null;
+	}
+
+	private int append(String s) {
+		if (size == strings.length) {
+			strings = Arrays.copyOf(strings, size * 2);
+		}
+		strings[size] = s;
+		return size++;
+	}
+
+	private void rehash() {
+		int[] oldTable = table;
+		int[] oldHashes = hashes;
+		table = new int[oldTable.length * 2];
+		hashes = new int[table.length];
+		int mask = table.length - 1;
+		for (int i = 0; i < oldTable.length; i++) {
+			if (oldTable[i] != 0) {
+				int slot = oldHashes[i] & mask;
+				while (table[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				table[slot] = oldTable[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	private static int hash(String s) {
+		int h = s.hashCode() * 0x9E3779B9; // similar strings have similar hash codes, scatter them for linear probing
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -21,6 +21,17 @@ public class FirefoxAnnotation {
 	private int flags; // 0
 	private int expires; // 4
 	private String value; // description: "MP3 etc. Free or commercial.", locationMap: ???
+
+	FirefoxAnnotation() {
+		// for Gson
+	}
+
+	FirefoxAnnotation(String name, int flags, int expires, String value) {
+		this.name = name;
+		this.flags = flags;
+		this.expires = expires;
+		this.value = value;
+	}
 	
 	public String getName() {
 		return name;
@@ -33,6 +33,26 @@ public class FirefoxBookmark implements Bookmark {
 	private List<FirefoxBookmark> children; // only for x-moz-place-container?
 	private String uri; // "http://www.p2r.se/links" (only for x-moz-place)
 
+	FirefoxBookmark() {
+		// for Gson
+	}
+
+	/**
+	 * Constructor for parsers that do not use reflection.
+	 * 
+	 * @see FirefoxStreamParser
+	 */
+	FirefoxBookmark(String title, int id, int parent, List<FirefoxAnnotation> annos, String type, String root, List<FirefoxBookmark> children, String uri) {
+		this.title = title;
+		this.id = id;
+		this.parent = parent;
+		this.annos = annos;
+		this.type = type;
+		this.root = root;
+		this.children = children;
+		this.uri = uri;
+	}
+
 	@Override
 	public boolean isContainer() {
 		return type.toLowerCase().equals("text/x-moz-place-container");
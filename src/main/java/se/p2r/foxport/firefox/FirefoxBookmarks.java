@@ -26,6 +26,25 @@ public class FirefoxBookmarks {
 	private String type;
 	private String root;
 	private List<FirefoxBookmark> children;
+
+	FirefoxBookmarks() {
+		// for Gson
+	}
+
+	/**
+	 * Constructor for parsers that do not use reflection.
+	 * 
+	 * @see FirefoxStreamParser
+	 */
+	FirefoxBookmarks(String title, int id, long dateAdded, long lastModified, String type, String root, List<FirefoxBookmark> children) {
+		this.title = title;
+		this.id = id;
+		this.dateAdded = dateAdded;
+		this.lastModified = lastModified;
+		this.type = type;
+		this.root = root;
+		this.children = children;
+	}
 	
 	public String getTitle() {
 		return title;
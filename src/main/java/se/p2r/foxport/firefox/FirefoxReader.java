@@ -22,15 +22,18 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Predicate;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import se.p2r.foxport.Bookmark;
 import se.p2r.foxport.BookmarkReader;
 import se.p2r.foxport.util.JsonFilter;
 import se.p2r.foxport.util.Log;
@@ -41,10 +44,10 @@ import se.p2r.foxport.util.Utils;
  * Reads firefox bookmarks.
  * </p>
  * <p>
- * <b>NOTE:</b>Cannot read the 'new' compressed format (LZ4).<br>
- * User must manually export bookmarks to JSON format and place it in the
- * Firefox backup folder, typically something like
- * <code>%USERPROFILE%/AppData/Roaming/Mozilla/Firefox/Profiles/l0sic08k.default/bookmarkbackups</code>
+ * Reads the most recent file in the Firefox backup folder, typically something like
+ * <code>%USERPROFILE%/AppData/Roaming/Mozilla/Firefox/Profiles/l0sic08k.default/bookmarkbackups</code>.
+ * Both the automatic backups in compressed format (<code>*.jsonlz4</code>) and
+ * manual exports to JSON format are accepted.
  * </p>
  * 
  * @author peer
@@ -55,9 +58,31 @@ public class FirefoxReader implements BookmarkReader {
 	private static final String[] ROOT_NAMES = {"Bookmarks Menu", "Bokmärkesmenyn"}; // TODO read from environment or config file (name depends on language)
 	
 	private final File inputFile;
+	private final Mode mode;
 
 	public FirefoxReader() throws IOException {
-		this.inputFile = findInputFile();
+		this(Mode.STREAMING);
+	}
+
+	public FirefoxReader(Mode mode) throws IOException {
+		this(findInputFile(), mode);
+	}
+
+	/**
+	 * @param inputFile a Firefox backup file (<code>*.json</code> or <code>*.jsonlz4</code>)
+	 */
+	public FirefoxReader(File inputFile) {
+		this(inputFile, Mode.STREAMING);
+	}
+
+	/**
+	 * @param inputFile a Firefox backup file (<code>*.json</code> or <code>*.jsonlz4</code>)
+	 * @param mode      how to parse and what to build
+	 * @see FirefoxStreamParser
+	 */
+	public FirefoxReader(File inputFile, Mode mode) {
+		this.inputFile = inputFile;
+		this.mode = mode;
 	}
 
 	private static File findInputFile() throws IOException {
@@ -133,12 +158,41 @@ public class FirefoxReader implements BookmarkReader {
 	}
 
 	@Override
-	public FirefoxBookmark load() {
-		FirefoxBookmarks allRoots = parseBookmarkFile();
-		return findBookmarksRoot(allRoots.getChildren(), ROOT_NAMES); // find the "Bookmarks" folder
+	public String getContentKey() {
+		return null; // backups carry no checksum, fall back on timestamps
+	}
+
+	@Override
+	public File getInputFile() {
+		return inputFile;
+	}
+
+	@Override
+	public Bookmark load() {
+		return load(new FirefoxStreamParser());
+	}
+
+	@Override
+	public Bookmark load(Predicate<? super Bookmark> rootFilter) {
+		return load(new FirefoxStreamParser(Utils.toLowerCase(ROOT_NAMES), rootFilter));
+	}
+
+	private Bookmark load(FirefoxStreamParser parser) {
+		List<? extends Bookmark> allRoots;
+		if (mode == Mode.COMPACT) {
+			allRoots = parseBookmarkFile(parser::parseCompact).getChildren();
+		} else {
+			allRoots = parseBookmarkFile(mode == Mode.REFLECTION ? FirefoxReader::parseReflection : parser::parse).getChildren();
+		}
+		return findBookmarksRoot(allRoots, ROOT_NAMES); // find the "Bookmarks" folder
+	}
+
+	private static FirefoxBookmarks parseReflection(Reader reader) {
+		Gson gson = new GsonBuilder().create();
+		return gson.fromJson(reader, FirefoxBookmarks.class);
 	}
 	
-	private FirefoxBookmark findBookmarksRoot(List<FirefoxBookmark> prospects, String[] wanted) {
+	private Bookmark findBookmarksRoot(List<? extends Bookmark> prospects, String[] wanted) {
 		Collection<String> lowerWanted = Utils.toLowerCase(wanted);
 		return prospects.stream()
 				.filter(p->lowerWanted.contains(p.getTitle().toLowerCase()))
@@ -146,25 +200,31 @@ public class FirefoxReader implements BookmarkReader {
 				.get();
 	}
 	
-	private FirefoxBookmarks parseBookmarkFile() {
-		if (endsWith(inputFile, JSON)) {
-			return parseJSON();
-		}
-		if (endsWith(inputFile, JSONLZ4)) {
-			throw new UnsupportedOperationException("Cannot parse compressed JSON: "+inputFile);
+	private interface ParseTask<T> {
+		T parse(Reader reader) throws IOException;
+	}
+
+	private <T> T parseBookmarkFile(ParseTask<T> parser) {
+		try {
+			if (endsWith(inputFile, JSON)) {
+				return parseJSON(new FileInputStream(inputFile), parser);
+			}
+			if (endsWith(inputFile, JSONLZ4)) {
+				return parseJSON(MozLz4Decoder.open(inputFile), parser);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Unable to read input file: " + inputFile, e);
 		}
 		throw new IllegalArgumentException("Unexpected file type: " + inputFile);
 	}
 
-	private FirefoxBookmarks parseJSON() {
+	private <T> T parseJSON(InputStream in, ParseTask<T> parser) {
 		Reader reader = null;
 		try {
-			FileInputStream fis = new FileInputStream(inputFile);
-			InputStreamReader isr = new InputStreamReader(fis, ENCODING_JSON);
+			InputStreamReader isr = new InputStreamReader(in, ENCODING_JSON);
 			reader = new BufferedReader(isr);
 			
-			Gson gson = new GsonBuilder().create();
-			FirefoxBookmarks ffb = gson.fromJson(reader, FirefoxBookmarks.class);
+			T ffb = parser.parse(reader);
 			Log.debug("Parsed " + inputFile + ":" + ffb);
 			return ffb;
 		} catch (Exception e) {
@@ -0,0 +1,334 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.firefox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.compact.CompactBookmark;
+import se.p2r.foxport.compact.CompactBookmarkTree;
+
+/**
+ * Token streaming parser for Firefox backups. Builds the same tree as Gson
+ * reflection would (see {@link FirefoxReader}), skipping fields we never use.
+ * <p>
+ * If a filter is supplied, the parser projects the tree: only the root folders
+ * named by <code>rootNames</code> are read, and only those of their children
+ * that the filter accepts. Firefox writes <code>children</code> as the last
+ * field of a node, so the filter is applied to a node built from the fields
+ * read so far, and rejected subtrees are skipped with
+ * {@link JsonReader#skipValue()} without being materialized.
+ * </p>
+ * <p>
+ * {@link #parseCompact(Reader)} emits a {@link CompactBookmarkTree} instead,
+ * rooted at the top level node. Each node is added to the tree as it is read
+ * and only a childless {@link FirefoxBookmark} is built to resolve its
+ * attributes (so a filter deciding on a complete node sees it without
+ * children).
+ * </p>
+ * 
+ * @author peer
+ *
+ */
+class FirefoxStreamParser {
+
+	private static final String TYPE_LINK = "text/x-moz-place";
+	private static final String TYPE_CONTAINER = "text/x-moz-place-container";
+	private static final String TYPE_SEPARATOR = "text/x-moz-place-separator";
+
+	// where in the tree we are, decides what may be skipped
+	private enum Level {
+		TOP,		// the root folders (menu, toolbar, unfiled ...)
+		CANDIDATE,	// children of the selected root folder, subject to filter
+		BELOW		// everything else
+	}
+
+	private final Collection<String> rootNames;
+	private final Predicate<? super Bookmark> filter;
+	private CompactBookmarkTree.Builder builder = null; // set while parsing to a compact tree
+
+	/**
+	 * Parser that reads the complete tree.
+	 */
+	FirefoxStreamParser() {
+		this(null, null);
+	}
+
+	/**
+	 * Parser that projects the tree.
+	 * 
+	 * @param rootNames lower case titles of the root folder to read
+	 * @param filter    selects the children of the root folder to read, or <code>null</code> for all
+	 */
+	FirefoxStreamParser(Collection<String> rootNames, Predicate<? super Bookmark> filter) {
+		this.rootNames = rootNames;
+		this.filter = filter;
+	}
+
+	FirefoxBookmarks parse(Reader reader) throws IOException {
+		return parseRoots(reader);
+	}
+
+	/**
+	 * Parse to a compact tree.
+	 * 
+	 * @param reader
+	 * @return the top level node, the root folders are its children
+	 * @throws IOException
+	 */
+	CompactBookmark parseCompact(Reader reader) throws IOException {
+		builder = new CompactBookmarkTree.Builder();
+		try {
+			parseRoots(reader);
+			return builder.build().getRoot();
+		} finally {
+			builder = null;
+		}
+	}
+
+	private FirefoxBookmarks parseRoots(Reader reader) throws IOException {
+		JsonReader in = new JsonReader(reader);
+		in.setLenient(true); // as Gson does
+		String title = null;
+		int id = 0;
+		long dateAdded = 0;
+		long lastModified = 0;
+		String type = null;
+		String root = null;
+		List<FirefoxBookmark> children = null;
+		int node = builder == null ? -1 : builder.begin(-1);
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "title":
+				title = nextString(in);
+				break;
+			case "id":
+				id = in.nextInt();
+				break;
+			case "dateAdded":
+				dateAdded = in.nextLong();
+				break;
+			case "lastModified":
+				lastModified = in.nextLong();
+				break;
+			case "type":
+				type = canonicalType(nextString(in));
+				break;
+			case "root":
+				root = nextString(in);
+				break;
+			case "children":
+				children = nextChildren(in, Level.TOP, node);
+				break;
+			default:
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		FirefoxBookmarks result = new FirefoxBookmarks(title, id, dateAdded, lastModified, type, root, children);
+		if (builder != null) {
+			builder.end(node, CompactBookmarkTree.CONTAINER, title, title, null, null, null);
+		}
+		return result;
+	}
+
+	private boolean isProjecting() {
+		return rootNames != null;
+	}
+
+	/*
+	 * Return null if the node is projected away. When building a compact tree, the
+	 * node is added to it and returned without children.
+	 */
+	private FirefoxBookmark nextBookmark(JsonReader in, Level level, int parentNode) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		int node = builder == null ? -1 : builder.begin(parentNode);
+		String title = null;
+		int id = 0;
+		int parent = 0;
+		List<FirefoxAnnotation> annos = null;
+		String type = null;
+		String root = null;
+		List<FirefoxBookmark> children = null;
+		String uri = null;
+		Boolean accepted = isProjecting() && level != Level.BELOW ? null : Boolean.TRUE; // null: not decided yet
+
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+			case "title":
+				title = nextString(in);
+				break;
+			case "id":
+				id = in.nextInt();
+				break;
+			case "parent":
+				parent = in.nextInt();
+				break;
+			case "annos":
+				annos = nextAnnotations(in);
+				break;
+			case "type":
+				type = canonicalType(nextString(in));
+				break;
+			case "root":
+				root = nextString(in);
+				break;
+			case "uri":
+				uri = nextString(in);
+				break;
+			case "children":
+				if (accepted == null && title != null) {
+					FirefoxBookmark shell = new FirefoxBookmark(title, id, parent, annos, type, root, null, uri);
+					accepted = Boolean.valueOf(accept(level, shell));
+				}
+				if (accepted == Boolean.FALSE) {
+					in.skipValue();
+				} else {
+					children = nextChildren(in, accepted == null ? Level.BELOW : next(level), node);
+				}
+				break;
+			default:
+				in.skipValue(); // guid, index, dateAdded, lastModified, typeCode, iconuri, charset, keyword ...
+			}
+		}
+		in.endObject();
+
+		FirefoxBookmark result = new FirefoxBookmark(title, id, parent, annos, type, root, children, uri);
+		if (accepted == null) {
+			// no children, or children came before the title: decide on the complete node
+			accepted = Boolean.valueOf(accept(level, result));
+		}
+		if (builder != null) {
+			if (accepted.booleanValue()) {
+				builder.end(node, result);
+			} else {
+				builder.discard(node);
+			}
+		}
+		return accepted.booleanValue() ? result : null;
+	}
+
+	private boolean accept(Level level, FirefoxBookmark prospect) {
+		switch (level) {
+		case TOP:
+			return prospect.getTitle() != null && rootNames.contains(prospect.getTitle().toLowerCase());
+		case CANDIDATE:
+			return filter == null || filter.test(prospect);
+		default:
+			return true;
+		}
+	}
+
+	private static Level next(Level level) {
+		return level == Level.TOP ? Level.CANDIDATE : Level.BELOW;
+	}
+
+	/* Return null when building a compact tree, the children are added to it */
+	private List<FirefoxBookmark> nextChildren(JsonReader in, Level level, int parentNode) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		List<FirefoxBookmark> children = builder == null ? new ArrayList() : null;
+		in.beginArray();
+		while (in.hasNext()) {
+			FirefoxBookmark child = nextBookmark(in, level, parentNode);
+			if (children != null && (child != null || !isProjecting())) {
+				children.add(child);
+			}
+		}
+		in.endArray();
+		return children;
+	}
+
+	private List<FirefoxAnnotation> nextAnnotations(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		List<FirefoxAnnotation> annos = new ArrayList();
+		in.beginArray();
+		while (in.hasNext()) {
+			String name = null;
+			int flags = 0;
+			int expires = 0;
+			String value = null;
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "name":
+					name = nextString(in);
+					break;
+				case "flags":
+					flags = in.nextInt();
+					break;
+				case "expires":
+					expires = in.nextInt();
+					break;
+				case "value":
+					value = nextString(in);
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+			annos.add(new FirefoxAnnotation(name, flags, expires, value));
+		}
+		in.endArray();
+		return annos;
+	}
+
+	private static String nextString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		if (in.peek() == JsonToken.BOOLEAN) {
+			return Boolean.toString(in.nextBoolean()); // as Gson does
+		}
+		return in.nextString();
+	}
+
+	// share the type constants rather than keeping one string per node
+	private static String canonicalType(String type) {
+		if (TYPE_LINK.equals(type)) {
+			return TYPE_LINK;
+		}
+		if (TYPE_CONTAINER.equals(type)) {
+			return TYPE_CONTAINER;
+		}
+		if (TYPE_SEPARATOR.equals(type)) {
+			return TYPE_SEPARATOR;
+		}
+		return type;
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.firefox;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Decodes the Firefox 'mozLz4' format used for <code>*.jsonlz4</code> files in
+ * <code>bookmarkbackups</code>: an 8 byte magic (<code>"mozLz40\0"</code>), the
+ * decompressed size as a 32 bit little endian integer, followed by a single LZ4
+ * block. The block is decompressed in memory and handed to the parser as a
+ * stream (no temp file, no intermediate String).
+ * 
+ * @author peer
+ * @see "https://dxr.mozilla.org/mozilla-central/source/toolkit/components/lz4/lz4.js"
+ */
+public final class MozLz4Decoder {
+
+	private static final byte[] MAGIC = "mozLz40\0".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_SIZE = MAGIC.length + 4;
+	private static final int MAX_EXPANSION = 255; // an LZ4 block decompresses to at most this many times its size
+
+	private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance(); // JNI if available, else Unsafe, else pure Java
+
+	private MozLz4Decoder() {} // static utility
+
+	/**
+	 * Open a stream on the decompressed contents of a mozLz4 file.
+	 * 
+	 * @param file <code>*.jsonlz4</code> file
+	 * @return InputStream on the decompressed bytes
+	 * @throws IOException if the file cannot be read or is not a valid mozLz4 file
+	 */
+	public static InputStream open(File file) throws IOException {
+		byte[] frame = Files.readAllBytes(file.toPath());
+		try {
+			return new ByteArrayInputStream(decode(frame));
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Not a valid mozLz4 file: " + file + " (" + e.getMessage() + ")", e);
+		}
+	}
+
+	/**
+	 * Decompress a mozLz4 frame.
+	 * 
+	 * @param frame magic, size and LZ4 block
+	 * @return decompressed bytes
+	 * @throws IllegalArgumentException if the frame is invalid
+	 */
+	public static byte[] decode(byte[] frame) {
+		if (frame.length < HEADER_SIZE || !hasMagic(frame)) {
+			throw new IllegalArgumentException("Bad magic number");
+		}
+		int size = ByteBuffer.wrap(frame, MAGIC.length, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+		if (size < 0 || size > (long) MAX_EXPANSION * (frame.length - HEADER_SIZE)) {
+			throw new IllegalArgumentException("Bad size: " + size); // don't allocate for a corrupt header
+		}
+		byte[] result = new byte[size];
+		try {
+			int decompressed = FACTORY.safeDecompressor().decompress(frame, HEADER_SIZE, frame.length - HEADER_SIZE, result, 0, size);
+			if (decompressed != size) {
+				throw new IllegalArgumentException("Expected " + size + " bytes, got " + decompressed);
+			}
+		} catch (LZ4Exception e) {
+			throw new IllegalArgumentException("Corrupt LZ4 block", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Compress to a mozLz4 frame, the inverse of {@link #decode(byte[])}.
+	 * 
+	 * @param contents
+	 * @return magic, size and LZ4 block
+	 */
+	public static byte[] encode(byte[] contents) {
+		byte[] block = FACTORY.fastCompressor().compress(contents);
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + block.length).order(ByteOrder.LITTLE_ENDIAN);
+		frame.put(MAGIC).putInt(contents.length).put(block);
+		return frame.array();
+	}
+
+	private static boolean hasMagic(byte[] frame) {
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (frame[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -15,12 +15,17 @@ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
 */
 package se.p2r.foxport.html;
 
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
 import static se.p2r.foxport.util.Utils.*;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 
-import se.p2r.foxport.Bookmark;
 import se.p2r.foxport.util.Log;
 
 /**
@@ -36,32 +41,37 @@ public class HTMLFileWriter {
 		this.outputFile = new File(targetFolder, fileName);
 	}
 
-	public File writeFile(String html, Bookmark root) {
-		writeFile(html, outputFile);
+	public File getOutputFile() {
 		return outputFile;
 	}
 
-	private void writeFile(String html, File outputFile) {
-		Log.debug("Writing html to "+outputFile+" ("+html.length()+" characters)" );
-		PrintWriter writer = null;
+	/**
+	 * Stream the rendered page to the output file; characters are encoded and
+	 * written through a buffered file channel as the renderer produces them.
+	 * The page is written to a temporary file first and moved into place when
+	 * complete, so a failed render leaves the previous page as it was.
+	 */
+	public File writeFile(HTMLRenderer renderer) {
+		Log.debug("Writing html to "+outputFile);
+		if (outputFile.isFile()) {
+			Log.debug("File found, replacing " + outputFile);
+		} else {
+			outputFile.getParentFile().mkdirs();
+		}
+		File tmp = new File(outputFile.getPath() + ".tmp");
 		try {
-			if (outputFile.isFile()) {
-				Log.debug("File found, replacing " + outputFile);
-			} else {
-				outputFile.getParentFile().mkdirs();
-				outputFile.createNewFile();
+			try (FileChannel channel = FileChannel.open(tmp.toPath(), CREATE, TRUNCATE_EXISTING, WRITE);
+					Writer writer = new BufferedWriter(Channels.newWriter(channel, ENCODING_HTML))) {
+				renderer.render(writer);
+				writer.write(System.lineSeparator());
 			}
-			writer = new PrintWriter(outputFile, ENCODING_HTML);
-			writer.println(html);
-			Log.log("OK: Wrote "+outputFile);
+			Files.move(tmp.toPath(), outputFile.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
 		} catch (Exception e) {
-			e.printStackTrace();
+			tmp.delete();
 			throw new RuntimeException("Failed to write file: "+outputFile, e);
-		} finally {
-			if (writer !=null) {
-				writer.close();
-			}
 		}
+		Log.log("OK: Wrote "+outputFile);
+		return outputFile;
 	}
 
 }
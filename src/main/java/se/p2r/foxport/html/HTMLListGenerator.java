@@ -15,21 +15,10 @@ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
 */
 package se.p2r.foxport.html;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Stack;
 
-import com.hp.gagawa.java.elements.A;
-import com.hp.gagawa.java.elements.Body;
-import com.hp.gagawa.java.elements.Dl;
-import com.hp.gagawa.java.elements.Dt;
-import com.hp.gagawa.java.elements.H1;
-import com.hp.gagawa.java.elements.H3;
-import com.hp.gagawa.java.elements.Head;
-import com.hp.gagawa.java.elements.Html;
-import com.hp.gagawa.java.elements.Meta;
-import com.hp.gagawa.java.elements.P;
-import com.hp.gagawa.java.elements.Text;
-import com.hp.gagawa.java.elements.Title;
-
 import se.p2r.foxport.Bookmark;
 import se.p2r.foxport.internal.LinkTester;
 import se.p2r.foxport.util.Log;
@@ -37,13 +26,12 @@ import se.p2r.foxport.util.Utils;
 
 /**
  * First version of generator, generates a plain list (no folding). 
- * Uses the <a href=https://github.com/dutoitns/gagawa>gagawa</a> HTML Generator.
  * 
  * @author peer
  * @see HTMLTreeGenerator
  *
  */
-public class HTMLListGenerator {
+public class HTMLListGenerator implements HTMLRenderer {
 
 	private final Bookmark root;
 	private final String name;
@@ -64,65 +52,55 @@ public class HTMLListGenerator {
 		this.trail = new BookmarkStack(root);
 	}
 
-	public String run() {
+	@Override
+	public void render(Writer writer) throws IOException {
 		assert root.hasChildren() : root.getName() + ": no children; should have been checked by caller!";
-		Html html = new Html();
-		Dl dl = begin(html, root);
+		MarkupWriter out = new MarkupWriter(writer);
+		begin(out, root);
 		for (Bookmark child : root.getChildren()) {
-			append(dl, child);
+			append(out, child);
 		}
+		end(out);
 		Log.debug("Generated " + uriConter + " links in " + containerCounter + " containers");
-		return html.write();
 	}
 
-	private Dl begin(Html html, Bookmark root) {
+	private void begin(MarkupWriter out, Bookmark root) throws IOException {
 //		<html><head>
 //		<meta http-equiv="content-type" content="text/html; charset=windows-1252"><title>Peer's Off Duty Links</title>
 //		</head><body><h1>Peer's Off Duty Links</h1>
-        
-		Head head = new Head();
-        Meta meta = new Meta("text/html"); // mandatory to pass in constructor?
-//      meta.setContent("text/html"); // 
-        meta.setHttpEquiv("content-type");
-        meta.setAttribute("charset", Utils.ENCODING_HTML);
-
-        head.appendChild(meta);
-        html.appendChild(head);
-       
-        Title title = new Title();
-		title.appendChild(new Text(name));
-        head.appendChild(title);
-       
-        Body body = new Body();
-        html.appendChild(body);
-        H1 h1 = new H1();
-	    h1.appendText(name);
-	    body.appendChild(h1);
-    
-        P p = new P();
-        p.appendText(description);
-        body.appendChild(p);
-        
-        Dl dl = new Dl();
-        appendDescription(dl, root);  // Doesn't work? No description saved in JSON?
-        body.appendChild(dl);
-        
-        return dl;
+		out.start("html", "xmlns", "http://www.w3.org/1999/xhtml");
+		out.start("head");
+		out.start("meta", "content", "text/html", "http-equiv", "content-type", "charset", Utils.ENCODING_HTML).end("meta");
+		out.element("title", name);
+		out.end("head");
+
+		out.start("body");
+		out.element("h1", name);
+		out.start("p").raw(description).end("p");
+
+		out.start("dl");
+		appendDescription(out, root);  // Doesn't work? No description saved in JSON?
+	}
+
+	private void end(MarkupWriter out) throws IOException {
+		out.end("dl");
+		out.end("body");
+		out.end("html");
 	}
 
-	private void append(Dl dl, Bookmark bm) {
+	private void append(MarkupWriter out, Bookmark bm) throws IOException {
 		if (bm.isLink()) {
 			if (linkTester.test(bm, trail)) {
-				appendLink(dl, bm);
+				appendLink(out, bm);
 			}
 		} else if (bm.isContainer()) {
 			if (bm.hasChildren()) {
 				trail.push(bm);
 				containerDepth++;
 				containerCounter++;
-				appendContainer(dl, bm);
+				appendContainer(out, bm);
 				for (Bookmark child : bm.getChildren()) {
-					append(dl, child);
+					append(out, child);
 				}
 				trail.pop();
 				containerDepth--;
@@ -134,51 +112,33 @@ public class HTMLListGenerator {
 		}
 	}
 
-	private void appendDescription(Dl dl, Bookmark bm) {
+	private void appendDescription(MarkupWriter out, Bookmark bm) throws IOException {
 		String description = bm.getDescription();
 		if (description!=null && description.trim().length()>0) {
-			P p = new P();
-			p.appendText(description);
-			dl.appendChild(p);
-			Log.debug(p.write());
+			out.element("p", description);
 		}
 	}
 
-	private void appendLink(Dl dl, Bookmark bm) {
+	private void appendLink(MarkupWriter out, Bookmark bm) throws IOException {
 //		<dt><a href="http://www.p2r.se/links">(p2r links)</a></dt>
 		uriConter++;
-		Dt dt = new Dt();
-		A a = new A();
-		
-		a.appendText(bm.getName());
-		a.setHref(bm.getUri());
-		
-		dt.appendChild(a);
-		dl.appendChild(dt);
-		appendDescription(dl, bm);
-		Log.debug(dt.write());
+		out.start("dt");
+		out.start("a", "href", bm.getUri()).text(bm.getName()).end("a");
+		out.end("dt");
+		appendDescription(out, bm);
 	}
 
-	private Dl appendContainer(Dl dlIn, Bookmark bm) {
+	private void appendContainer(MarkupWriter out, Bookmark bm) throws IOException {
 //		<dt><h3 folded="">Household (economy, home improvement, etc)</h3></dt>
-		Text title = new Text(bm.getName());
-
-		Dt dt = new Dt();
-		H3 h3 = new H3();
 		Log.debug(bm.getTitle()+", depth="+containerDepth);
-//		h3.setAttribute("folded", "");
-        
-		h3.appendChild(title);
-		dt.appendChild(h3);
-        dlIn.appendChild(dt);
-        
-		appendDescription(dlIn, bm);
-
-		Log.debug(dt.write());
-		
-		Dl dlOut = new Dl();
-		dlIn.appendChild(dlOut);
-		return dlOut;
+		out.start("dt");
+		out.element("h3", bm.getName());
+		out.end("dt");
+
+		appendDescription(out, bm);
+
+		// children follow in the enclosing list, the nested one is left empty (no folding)
+		out.start("dl").end("dl");
 	}
 
 	public Bookmark getRoot() {
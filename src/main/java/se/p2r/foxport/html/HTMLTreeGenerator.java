@@ -15,18 +15,11 @@ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
 */
 package se.p2r.foxport.html;
 
-import static j2html.TagCreator.*;
-import static j2html.attributes.Attr.*;
-
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
-import java.util.List;
 import java.util.Stack;
 
-import j2html.tags.ContainerTag;
-import j2html.tags.DomContent;
-import j2html.tags.Tag;
-import j2html.tags.Text;
 import se.p2r.foxport.Bookmark;
 import se.p2r.foxport.internal.LinkTester;
 import se.p2r.foxport.util.BookmarkSorter;
@@ -34,15 +27,14 @@ import se.p2r.foxport.util.Log;
 import se.p2r.foxport.util.Utils;
 
 /**
- * Newer version of HTML generator. Uses the <a
- * href=https://github.com/tipsy/j2html>j2html</a> tag generator that supports
- * HTML 5, in particular the <code>&lt;detail&gt;</code> and
- * <code>&lt;summary&gt;</code> tags.
+ * Newer version of HTML generator. Generates HTML 5, in particular the
+ * <code>&lt;detail&gt;</code> and <code>&lt;summary&gt;</code> tags, so that
+ * folders can be folded.
  * 
  * @author peer
  * @see HTMLListGenerator
  */
-public class HTMLTreeGenerator {
+public class HTMLTreeGenerator implements HTMLRenderer {
 
 	private static final String LINKBULLET = "> "; //"▻ "; // HTML "&#9659;"
 
@@ -64,96 +56,102 @@ public class HTMLTreeGenerator {
 		this.trail = new BookmarkStack(root);
 	}
 
-	public String run() {
+	@Override
+	public void render(Writer writer) throws IOException {
 		assert root.hasChildren() : root.getTitle() + ": no children; should have been checked by caller!";
-		ContainerTag html = html(newHead(), newBody(root.getChildren()));
+		MarkupWriter out = new MarkupWriter(writer);
+		out.start("html");
+		writeHead(out);
+		writeBody(out, root.getChildren());
+		out.end("html");
 		Log.debug("Generated " + uriConter + " links in " + containerCounter + " containers");
-		return html.render();
 	}
 
-	private ContainerTag newHead() {
-		Tag meta = meta(); 
-        meta.attr(CHARSET, Utils.ENCODING_HTML);
-        Tag title = title(name);
-        Tag style = style(
-        		newStyleElement("html", "font-family: Arial, Helvetica, sans-serif"),
-        		newStyleElement("div", "margin-left: 1em"),
-        		newStyleElement("details", "color: DarkSlateGrey","font-size: small", "margin-left: 1em"),
-        		newStyleElement("summary", "color: black","font-size: medium"),
-        		newStyleElement("a", "color: DodgerBlue","font-size: small")
-        		);
-        style.attr(TYPE, "text/css");
-               
-        return head(meta, title, style);
+	private void writeHead(MarkupWriter out) throws IOException {
+		out.start("head");
+		out.start("meta", "charset", Utils.ENCODING_HTML);
+		out.element("title", name);
+		out.start("style", "type", "text/css");
+		writeStyleElement(out, "html", "font-family: Arial, Helvetica, sans-serif");
+		writeStyleElement(out, "div", "margin-left: 1em");
+		writeStyleElement(out, "details", "color: DarkSlateGrey", "font-size: small", "margin-left: 1em");
+		writeStyleElement(out, "summary", "color: black", "font-size: medium");
+		writeStyleElement(out, "a", "color: DodgerBlue", "font-size: small");
+		out.end("style");
+		out.end("head");
 	}
 
-	private DomContent newStyleElement(String key, String... values) {
-		// TODO tag toolkit probably supports a better way to do this?
-		String valueList = "";
+	private void writeStyleElement(MarkupWriter out, String key, String... values) throws IOException {
+		out.text(key).text(" {");
 		for (String value : values) {
-			valueList+=value;
-			valueList+=";";
+			out.text(value).text(";");
 		}
-		String text = String.format("%s {%s}", key, valueList);
-		return new Text(text );
+		out.text("}");
 	}
 
-	private DomContent newBody(Collection<? extends Bookmark> bookmarks) {
-		return body()
-				.with(h1(name))
-				.with(rawHtml(description))
-				.with(hr())
-				.with(newContents(bookmarks))
-				.with(generatedBy());
+	private void writeBody(MarkupWriter out, Collection<? extends Bookmark> bookmarks) throws IOException {
+		out.start("body");
+		out.element("h1", name);
+		out.raw(description);
+		out.start("hr");
+		writeContents(out, bookmarks);
+		writeGeneratedBy(out);
+		out.end("body");
 	}
 
-	private Iterable<DomContent> newContents(Collection<? extends Bookmark> children) {
-		List<DomContent> result = new ArrayList();
+	private void writeContents(MarkupWriter out, Collection<? extends Bookmark> children) throws IOException {
 		Collection<Bookmark> sortedChildren = BookmarkSorter.sort(children);
 		
 		// TODO avoid empty folders when all children are invalid
 		for (Bookmark bm: sortedChildren) {
 			if (bm.isLink()) {
 				if (linkTester.test(bm, trail)) {
-					result.add(newLink(bm));
+					writeLink(out, bm);
 				}
 			} else if (bm.hasChildren()) {
-				result.add(newContainer(bm));
+				writeContainer(out, bm);
 			} else {
 				Log.log(String.format("Skipping empty folder: %s (%s)", bm.getName(), trail));
 			}
 		}
-		return result;
 	}
 
-	private ContainerTag newLink(Bookmark bm) {
+	private void writeLink(MarkupWriter out, Bookmark bm) throws IOException {
 		uriConter++;
-		ContainerTag link = a(bm.getName()).attr("href", bm.getUri());
-		return div(LINKBULLET).with(link);
+		out.start("div").text(LINKBULLET);
+		out.start("a", "href", bm.getUri()).text(bm.getName()).end("a");
+		out.end("div");
 	}
 
-	private DomContent newContainer(Bookmark bm) {
+	private void writeContainer(MarkupWriter out, Bookmark bm) throws IOException {
 		trail.push(bm);
 		containerCounter++;
 		containerDepth++;
-		DomContent summary = containerDepth<2 ? summary(strong(bm.getName())) : summary(bm.getName());
-		ContainerTag result = details().with(summary);
+		out.start("details");
+		out.start("summary");
+		if (containerDepth<2) {
+			out.element("strong", bm.getName());
+		} else {
+			out.text(bm.getName());
+		}
+		out.end("summary");
 		if (!empty(bm.getDescription())) {
-			ContainerTag description = div(bm.getDescription());
-			result.with(description);
+			out.element("div", bm.getDescription());
 		}
-		result.with(newContents(bm.getChildren()));
+		writeContents(out, bm.getChildren());
+		out.end("details");
 		containerDepth--;
 		trail.pop();
-		return result;
 	}
 
-	private DomContent generatedBy() {
+	private void writeGeneratedBy(MarkupWriter out) throws IOException {
 		String today = Utils.formatTimeUTC(System.currentTimeMillis());
-		ContainerTag link = a("p2r-foxport").attr("href", "https://github.com/ptorngren/p2r-foxport");
-//		ContainerTag utc = sup(a("UTC").attr("href", "https://www.worldtimeserver.com/current_time_in_UTC.aspx"));
-		ContainerTag utc = sup("UTC");
-		return p(hr(), small("Generated by ").with(link).withText(today).with(utc));
+		out.start("p").start("hr");
+		out.start("small").text("Generated by ");
+		out.start("a", "href", "https://github.com/ptorngren/p2r-foxport").text("p2r-foxport").end("a");
+		out.text(today);
+		out.element("sup", "UTC");
+		out.end("small").end("p");
 	}
 
 	private static boolean empty(String s) {
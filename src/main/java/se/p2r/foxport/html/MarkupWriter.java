@@ -0,0 +1,126 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.html;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes tags and escaped text straight to the underlying writer. Does not
+ * check the structure of the document; void elements (<code>meta</code>,
+ * <code>hr</code>) are simply never ended.
+ * 
+ * @author peer
+ *
+ */
+public class MarkupWriter {
+
+	private final Writer out;
+
+	public MarkupWriter(Writer out) {
+		this.out = out;
+	}
+
+	public MarkupWriter start(String tag) throws IOException {
+		out.write('<');
+		out.write(tag);
+		out.write('>');
+		return this;
+	}
+
+	/**
+	 * Write a start tag with attributes, given as name/value pairs.
+	 */
+	public MarkupWriter start(String tag, String... attributes) throws IOException {
+		assert attributes.length % 2 == 0 : tag + ": attributes must be name/value pairs";
+		out.write('<');
+		out.write(tag);
+		for (int i = 0; i < attributes.length; i += 2) {
+			out.write(' ');
+			out.write(attributes[i]);
+			out.write("=\"");
+			escape(attributes[i + 1]);
+			out.write('"');
+		}
+		out.write('>');
+		return this;
+	}
+
+	public MarkupWriter end(String tag) throws IOException {
+		out.write("</");
+		out.write(tag);
+		out.write('>');
+		return this;
+	}
+
+	public MarkupWriter element(String tag, String text) throws IOException {
+		return start(tag).text(text).end(tag);
+	}
+
+	public MarkupWriter text(String text) throws IOException {
+		escape(text);
+		return this;
+	}
+
+	/**
+	 * Write text that is already HTML, without escaping.
+	 */
+	public MarkupWriter raw(String html) throws IOException {
+		if (html != null) {
+			out.write(html);
+		}
+		return this;
+	}
+
+	/*
+	 * Copy runs of plain characters in one call, only stop for the few that
+	 * must be replaced.
+	 */
+	private void escape(String s) throws IOException {
+		if (s == null) {
+			return;
+		}
+		int start = 0;
+		int length = s.length();
+		for (int i = 0; i < length; i++) {
+			String entity = entity(s.charAt(i));
+			if (entity != null) {
+				out.write(s, start, i - start);
+				out.write(entity);
+				start = i + 1;
+			}
+		}
+		out.write(s, start, length - start);
+	}
+
+	private static String entity(char c) {
+		switch (c) {
+		case '&':
+			return "&amp;";
+		case '<':
+			return "&lt;";
+		case '>':
+			return "&gt;";
+		case '"':
+			return "&quot;";
+		case '\'':
+			return "&#x27;";
+		default:
+			return null;
+		}
+	}
+
+}
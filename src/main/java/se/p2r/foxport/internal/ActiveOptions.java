@@ -32,6 +32,7 @@ import org.apache.commons.cli.UnrecognizedOptionException;
 
 import se.p2r.foxport.BookmarkExporter;
 import se.p2r.foxport.util.BrowserType;
+import se.p2r.foxport.util.Utils;
 
 public final class ActiveOptions {
 
@@ -70,6 +71,21 @@ public final class ActiveOptions {
 		return commandLine.hasOption(CONFIGURATIONFILE);
 	}
 
+	/**
+	 * @return number of root folders to export in parallel, at least 1
+	 */
+	public int getParallelism() {
+		if (!commandLine.hasOption(JOBS)) {
+			return 1;
+		}
+		String jobs = commandLine.getOptionValue('j');
+		try {
+			return Math.max(1, Integer.parseInt(jobs));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number of jobs: "+jobs, e);
+		}
+	}
+
 	public boolean isPlainList() {
 		return commandLine.hasOption(LISTOUTPUT);
 	}
@@ -135,4 +151,133 @@ public final class ActiveOptions {
 		return commandLine.hasOption(PROBE);
 	}
 
-}
\ No newline at end of file
+	/**
+	 * @return how long (ms) a successful probe result is reused
+	 */
+	public long getProbeTTL() {
+		return getDuration(PROBE_TTL, "7d");
+	}
+
+	/**
+	 * @return how long (ms) a failed probe result is reused
+	 */
+	public long getProbeErrorTTL() {
+		return getDuration(PROBE_ERROR_TTL, "6h");
+	}
+
+	/**
+	 * @return time (ms) allowed for probing links, or 0 for no limit
+	 */
+	public long getProbeBudget() {
+		return commandLine.hasOption(PROBE_BUDGET) ? getDuration(PROBE_BUDGET, null) : 0;
+	}
+
+	/**
+	 * @return links probed per minute in the background, or 0 to probe when
+	 *         exporting
+	 */
+	public int getProbeCrawlRate() {
+		if (!commandLine.hasOption(PROBE_CRAWL)) {
+			return 0;
+		}
+		String rate = commandLine.getOptionValue(PROBE_CRAWL);
+		try {
+			int value = Integer.parseInt(rate);
+			if (value <= 0) {
+				throw new IllegalArgumentException("Crawl rate must be positive: " + rate);
+			}
+			return value;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid crawl rate: " + rate, e);
+		}
+	}
+
+	/**
+	 * @return directory of the queue of links to probe, shared with worker
+	 *         processes, or <code>null</code> to probe in this process only
+	 */
+	public File getProbeQueue() {
+		return commandLine.hasOption(PROBE_QUEUE) ? new File(commandLine.getOptionValue(PROBE_QUEUE)) : null;
+	}
+
+	/**
+	 * @return <code>true</code> if running as a worker, probing links queued by
+	 *         others
+	 */
+	public boolean isProbeWorker() {
+		return commandLine.hasOption(PROBE_WORKER);
+	}
+
+	/**
+	 * @return directory of the queue a worker probes links from
+	 */
+	public File getProbeWorkerQueue() {
+		return new File(commandLine.getOptionValue(PROBE_WORKER));
+	}
+
+	/**
+	 * @return number of failed probes in a row before a link is reported as bad
+	 */
+	public int getProbeFailures() {
+		if (!commandLine.hasOption(PROBE_FAILURES)) {
+			return 2;
+		}
+		String failures = commandLine.getOptionValue(PROBE_FAILURES);
+		try {
+			return Math.max(1, Integer.parseInt(failures));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number of failures: " + failures, e);
+		}
+	}
+
+	/**
+	 * @return percentile of HEAD latency after which a probe is hedged with
+	 *         GET, or 0 for no hedging
+	 */
+	public double getProbeHedge() {
+		if (!commandLine.hasOption(PROBE_HEDGE)) {
+			return 0;
+		}
+		String percentile = commandLine.getOptionValue(PROBE_HEDGE);
+		try {
+			double value = Double.parseDouble(percentile);
+			if (value < 0 || value >= 100) {
+				throw new IllegalArgumentException("Percentile out of range: " + percentile);
+			}
+			return value;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile, e);
+		}
+	}
+
+	/**
+	 * @return lower bound (ms) of the timeout learned per host
+	 */
+	public long getProbeTimeoutMin() {
+		return getDuration(PROBE_TIMEOUT_MIN, "1s");
+	}
+
+	/**
+	 * @return upper bound (ms) of the timeout learned per host
+	 */
+	public long getProbeTimeoutMax() {
+		return getDuration(PROBE_TIMEOUT_MAX, "15s");
+	}
+
+	private long getDuration(String option, String defaultValue) {
+		return Utils.parseDuration(commandLine.getOptionValue(option, defaultValue));
+	}
+
+	public boolean isSnapshot() {
+		return commandLine.hasOption(SNAPSHOT);
+	}
+
+	public boolean isCompact() {
+		return commandLine.hasOption(COMPACT);
+	}
+
+	public boolean isWatch() {
+		return commandLine.hasOption(WATCH);
+	}
+
+}
@@ -21,19 +21,30 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections4.ListValuedMap;
 
 import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkExporter;
 import se.p2r.foxport.BookmarkReader;
+import se.p2r.foxport.BookmarkReader.Mode;
 import se.p2r.foxport.html.HTMLFileWriter;
 import se.p2r.foxport.html.HTMLListGenerator;
+import se.p2r.foxport.html.HTMLRenderer;
 import se.p2r.foxport.html.HTMLTreeGenerator;
 import se.p2r.foxport.internal.exceptions.ConfigurationException;
+import se.p2r.foxport.internal.exceptions.FatalException;
+import se.p2r.foxport.internal.exceptions.UnhandledException;
+import se.p2r.foxport.snapshot.SnapshotReader;
 import se.p2r.foxport.util.BrowserType;
 import se.p2r.foxport.util.DeepBookmarkSelector;
 import se.p2r.foxport.util.Log;
+import se.p2r.foxport.util.SubtreeHash;
 import se.p2r.foxport.util.Utils;
 
 /**
@@ -51,17 +62,25 @@ public class BookmarkProcessor {
 	protected final File targetFolder;
 	protected final BrowserType browserType;
 	protected final long timestamp;
+	protected final ExportState state;
 	
 	private final boolean generateTree;
 	private final boolean isForceExport;
+	private final boolean useSnapshot;
+	private final boolean useCompact;
+	private final int parallelism;
 	private final LinkTester linkTester;
 
-	public BookmarkProcessor(BrowserType browserType, File targetFolder, boolean isTree, boolean isForceExport, long timestamp, LinkTester linkTester) throws ConfigurationException {
+	public BookmarkProcessor(BrowserType browserType, File targetFolder, boolean isTree, boolean isForceExport, boolean useSnapshot, boolean useCompact, int parallelism, ExportState state, LinkTester linkTester) throws ConfigurationException {
 		this.browserType = browserType;
 		this.targetFolder = targetFolder;
 		this.generateTree = isTree;
 		this.isForceExport = isForceExport;
-		this.timestamp = timestamp;
+		this.useSnapshot = useSnapshot;
+		this.useCompact = useCompact;
+		this.parallelism = parallelism;
+		this.state = state;
+		this.timestamp = state.getTimestamp();
 		this.linkTester = linkTester;
 		if (!targetFolder.isDirectory()) {
 			throw new ConfigurationException(new FileNotFoundException("Output folder does not exist: " + targetFolder));
@@ -69,9 +88,10 @@ public class BookmarkProcessor {
 	}
 
 	public List<File> process() throws IOException {
-		BookmarkReader reader = BookmarkReader.Factory.makeReader(browserType);
+		BookmarkReader reader = makeReader();
 		if (needsUpdate(reader)) {
-			Bookmark bookmarksRoot = reader.load();
+			// skip untagged root containers already when parsing
+			Bookmark bookmarksRoot = reader.load(BookmarkProcessor::isExportRoot);
 	
 			// first select tagged root containers, then recursively collect tagged containers in these roots
 			List<Bookmark> rootsToExport = selectChildrenToExport(bookmarksRoot);
@@ -83,16 +103,49 @@ public class BookmarkProcessor {
 		return Collections.EMPTY_LIST;
 	}
 
+	protected BookmarkReader makeReader() throws IOException {
+		BookmarkReader reader = BookmarkReader.Factory.makeReader(browserType, useCompact ? Mode.COMPACT : Mode.STREAMING);
+		if (useSnapshot) {
+			File snapshotFile = new File(targetFolder, BookmarkExporter.class.getName() + ".snapshot");
+			return new SnapshotReader(reader, snapshotFile);
+		}
+		return reader;
+	}
+
 	protected boolean needsUpdate(BookmarkReader reader) {
-		if (isForceExport || reader.getTimestamp()>timestamp) {
-			return true;
+		if (!isForceExport && reader.getTimestamp()<=timestamp) {
+			Log.log(String.format("Skipping export - bookmarks have not changed since last run. Bookmarks: %s - Last run: %s", Utils.formatTimeISO(reader.getTimestamp()), Utils.formatTimeISO(timestamp)));
+			return false;
 		}
-		Log.log(String.format("Skipping export - bookmarks have not changed since last run. Bookmarks: %s - Last run: %s", Utils.formatTimeISO(reader.getTimestamp()), Utils.formatTimeISO(timestamp)));
-		return false;
+		// the file was saved, but browsers also save for sync and visits
+		String previousKey = state.getContentKey();
+		String contentKey = recordContentKey(reader);
+		if (!isForceExport && contentKey!=null && contentKey.equals(previousKey)) {
+			Log.log(String.format("Skipping export - bookmarks were saved but their contents have not changed since last run. Bookmarks: %s - Last run: %s", Utils.formatTimeISO(reader.getTimestamp()), Utils.formatTimeISO(timestamp)));
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Record the content key of the bookmarks in the state, to be stored when the
+	 * run ends happily.
+	 * 
+	 * @param reader
+	 * @return key or <code>null</code>
+	 */
+	protected String recordContentKey(BookmarkReader reader) {
+		long start = System.currentTimeMillis();
+		String contentKey = reader.getContentKey();
+		Log.debug(String.format("Content key: %s (%d ms)", contentKey, Long.valueOf(System.currentTimeMillis() - start)));
+		state.setContentKey(contentKey);
+		return contentKey;
 	}
 
 	private List<File> export(ListValuedMap<String, Bookmark> containers) {
-		List<File> files = new ArrayList();
+		List<Callable<File>> tasks = new ArrayList();
+		List<String> ids = new ArrayList();
+		List<Bookmark> roots = new ArrayList();
 
 		// process each selected folder by id
 		for (String id : containers.keySet()) {
@@ -101,13 +154,83 @@ public class BookmarkProcessor {
 			
 			// process each id (multiple containers may exist)
 			Bookmark container = containersWithSameID.size() == 1 ? containersWithSameID.iterator().next() : merge(id, containersWithSameID);
-			File exportedFile = processContainer(container);
-			files.add(exportedFile);
+			ids.add(container.getExportId());
+			roots.add(container);
+			tasks.add(() -> processContainer(container));
 		}
+		probeLinks(roots);
+		List<File> files = exportAll(tasks);
+		state.retainExportHashes(ids);
 	
 		return files;
 	}
 
+	/**
+	 * Probe links in all root folders before generating any HTML, so that links
+	 * are probed concurrently rather than one by one while rendering.
+	 */
+	protected void probeLinks(List<Bookmark> roots) {
+		linkTester.probe(roots);
+	}
+
+	/**
+	 * Run export tasks, one per root folder. The tasks are independent, so if
+	 * parallelism is configured they run concurrently on a {@link ForkJoinPool}.
+	 * Either way, files are returned in task order.
+	 * 
+	 * @param tasks each returns an exported file, or <code>null</code> if unchanged
+	 * @return exported files
+	 */
+	protected List<File> exportAll(List<Callable<File>> tasks) {
+		List<File> files = new ArrayList();
+		if (parallelism <= 1 || tasks.size() <= 1) {
+			for (Callable<File> task : tasks) {
+				addIfExported(files, call(task));
+			}
+			return files;
+		}
+
+		Log.log(String.format("Exporting %d root folders, %d in parallel", Integer.valueOf(tasks.size()), Integer.valueOf(parallelism)));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			for (Future<File> future : pool.invokeAll(tasks)) {
+				addIfExported(files, future.get());
+			}
+			return files;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FatalException("Interrupted while exporting", e);
+		} catch (ExecutionException e) {
+			throw unwrap(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void addIfExported(List<File> files, File file) {
+		if (file != null) {
+			files.add(file);
+		}
+	}
+
+	private static File call(Callable<File> task) {
+		try {
+			return task.call();
+		} catch (Exception e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static RuntimeException unwrap(Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new UnhandledException("Export failed", t);
+	}
+
 	private Bookmark merge(String id, List<Bookmark> containers) {
 		MutableBookmarkContainer result = new MutableBookmarkContainer(id);
 		for (Bookmark c : containers) {
@@ -127,23 +250,51 @@ public class BookmarkProcessor {
 		return generate(root, title, description, id);
 	}
 
+	/**
+	 * Generate and write a file, unless it is unchanged since the previous run.
+	 * 
+	 * @return the file, or <code>null</code> if unchanged (nothing to upload)
+	 */
 	protected File generate(Bookmark root, String title, String description, String id) {
+		HTMLFileWriter writer = new HTMLFileWriter(targetFolder, id);
+		String hash = SubtreeHash.of(root, generateTree ? "tree" : "list", title, description);
+		if (isIncremental() && hash.equals(state.getExportHash(id)) && writer.getOutputFile().isFile()) {
+			Log.log("Unchanged root folder: " + id);
+			state.setExportHash(id, hash);
+			return null;
+		}
+
 		Log.log("Processing root folder: " + id);
-		String html = generateTree 
-				? new HTMLTreeGenerator(root, title, description, linkTester).run()
-				: new HTMLListGenerator(root, title, description, linkTester).run();
+		HTMLRenderer renderer = generateTree 
+				? new HTMLTreeGenerator(root, title, description, linkTester)
+				: new HTMLListGenerator(root, title, description, linkTester);
 				
-		return new HTMLFileWriter(targetFolder, id).writeFile(html, root);
+		File result = writer.writeFile(renderer);
+		state.setExportHash(id, hash);
+		return result;
+	}
+
+	/*
+	 * Unchanged files are skipped unless forced. When probing links, the output
+	 * also depends on the network, so every file is generated (and every link
+	 * tested and reported).
+	 */
+	private boolean isIncremental() {
+		return !isForceExport && !linkTester.isEnabled();
 	}
 
 	private List<Bookmark> selectChildrenToExport(Bookmark bookmarksRoot) {
 		List<? extends Bookmark> roots = bookmarksRoot.getChildren();
-		List<Bookmark> result = roots.stream().filter(p -> p.isTaggedForExport()).collect(Collectors.toList());
+		List<Bookmark> result = roots.stream().filter(BookmarkProcessor::isExportRoot).collect(Collectors.toList());
 		if (result.isEmpty()) {
-			Log.warn("No folder is tagged for export: "+Utils.toNames(roots));
+			Log.warn("No folder is tagged for export in: "+bookmarksRoot.getName());
 //			Expected format is #<exportId>#<title>;<description> (all elements are optional, only initial # is required)");
 		}
 		return result;
 	}
 
+	private static boolean isExportRoot(Bookmark prospect) {
+		return prospect.isTaggedForExport();
+	}
+
 }
@@ -0,0 +1,139 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.internal;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import se.p2r.foxport.internal.exceptions.FatalException;
+import se.p2r.foxport.util.Log;
+
+/**
+ * <p>
+ * Watches bookmark files with a {@link WatchService} and runs a task when they
+ * change. Browsers write in bursts (temp file, rename, backup), so the task is
+ * run only when no relevant change has been seen for a quiet period
+ * (debounce). Changes to other files in the watched directories (Chrome keeps
+ * History, Cookies etc next to its bookmarks) are ignored.
+ * </p>
+ * <p>
+ * Changes seen while the task runs are picked up when it returns.
+ * </p>
+ * 
+ * @author peer
+ *
+ */
+public class BookmarkWatcher {
+
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> directories = new HashMap();
+	private final Map<WatchKey, List<FileFilter>> filters = new HashMap();
+	private final long debounceMillis;
+
+	public BookmarkWatcher(long debounceMillis) throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Watch the files accepted by the filter in a directory. A directory
+	 * registered more than once is watched for the files of each filter.
+	 * 
+	 * @param directory
+	 * @param filter
+	 * @return this
+	 * @throws IOException
+	 */
+	public BookmarkWatcher register(File directory, FileFilter filter) throws IOException {
+		Path path = directory.toPath();
+		WatchKey key = path.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+		directories.put(key, path);
+		filters.computeIfAbsent(key, k -> new ArrayList()).add(filter);
+		Log.log("Watching " + directory + " for " + filter);
+		return this;
+	}
+
+	/**
+	 * Run the task after each burst of changes, until interrupted.
+	 * 
+	 * @param task
+	 * @throws InterruptedException
+	 */
+	public void watch(Runnable task) throws InterruptedException {
+		try {
+			while (true) {
+				if (!drain(watchService.take())) {
+					continue;
+				}
+				long deadline = System.currentTimeMillis() + debounceMillis;
+				for (long remaining = debounceMillis; remaining > 0; remaining = deadline - System.currentTimeMillis()) {
+					WatchKey key = watchService.poll(remaining, TimeUnit.MILLISECONDS);
+					if (key != null && drain(key)) {
+						deadline = System.currentTimeMillis() + debounceMillis; // still writing
+					}
+				}
+				task.run();
+			}
+		} finally {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				Log.warn("Could not close watch service: " + e.getMessage());
+			}
+		}
+	}
+
+	/* Consume the events of the key, return true if any is relevant */
+	private boolean drain(WatchKey key) {
+		Path directory = directories.get(key);
+		boolean result = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				result = true; // events were lost, assume the worst
+			} else if (accept(key, directory.resolve((Path) event.context()).toFile())) {
+				Log.debug("Changed: " + event.context() + " (" + event.kind() + ")");
+				result = true;
+			}
+		}
+		if (!key.reset()) {
+			throw new FatalException("Watched directory is no longer accessible: " + directory);
+		}
+		return result;
+	}
+
+	private boolean accept(WatchKey key, File file) {
+		for (FileFilter filter : filters.get(key)) {
+			if (filter.accept(file)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
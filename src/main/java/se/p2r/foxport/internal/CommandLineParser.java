@@ -34,11 +34,25 @@ public class CommandLineParser {
 	static final String CONFIGURATIONFILE = "c";
 	static final String FORCE = "f";
 	static final String HELP = "h";
+	static final String JOBS = "j";
 	static final String LISTOUTPUT = "l";
+	static final String COMPACT = "m";
 	static final String PROBE = "p";
+	static final String SNAPSHOT = "s";
 	static final String TARGETFOLDER = "t";
 	static final String UPLOAD = "u";
 	static final String VERSION = "v";
+	static final String WATCH = "w";
+	static final String PROBE_TTL = "probe-ttl";
+	static final String PROBE_ERROR_TTL = "probe-error-ttl";
+	static final String PROBE_HEDGE = "probe-hedge";
+	static final String PROBE_TIMEOUT_MIN = "probe-timeout-min";
+	static final String PROBE_TIMEOUT_MAX = "probe-timeout-max";
+	static final String PROBE_FAILURES = "probe-failures";
+	static final String PROBE_BUDGET = "probe-budget";
+	static final String PROBE_CRAWL = "probe-crawl";
+	static final String PROBE_QUEUE = "probe-queue";
+	static final String PROBE_WORKER = "probe-worker";
 
 	private final Options validOptions;
 	private ActiveOptions activeOptions;
@@ -51,11 +65,25 @@ public class CommandLineParser {
 				.addOption(CONFIGURATIONFILE, "config", true, "Configuration file (foobar.properties), mandatory if running Firefox")
 				.addOption(FORCE, "force", false, "Force export (ignore timestamps)")
 				.addOption(HELP, "help", false, "Show this help text")
+				.addOption(JOBS, "jobs", true, "Number of root folders to export in parallel (default is 1)")
 				.addOption(LISTOUTPUT, "list", false, "List output (default is tree)")
+				.addOption(COMPACT, "compact", false, "Keep parsed bookmarks in a compact memory model (for very large bookmark files)")
 				.addOption(PROBE, "probe", false, "Probe links, ignore if host name is unknown (or not responding).")
+				.addOption(SNAPSHOT, "snapshot", false, "Keep a snapshot of parsed bookmarks in target folder, load it instead of parsing if bookmarks have not changed")
 				.addOption(TARGETFOLDER, "target", true, "Target folder for writing exported files (default is user's temp directory)")
 				.addOption(UPLOAD, "upload", true, "Upload to FTP destination (default is no upload). Format follows RFC 1738: 'ftp://<user>:<password>@<host>:<port>/<path>'")
-				.addOption(VERSION, "version", false, "show version info");
+				.addOption(VERSION, "version", false, "show version info")
+				.addOption(WATCH, "watch", false, "Keep running after export, export again when bookmarks (or the configuration file) change")
+				.addOption(null, PROBE_TTL, true, "Reuse successful probe results this long, for example 12h or 7d (default is 7d)")
+				.addOption(null, PROBE_ERROR_TTL, true, "Reuse failed probe results this long, for example 30m or 6h (default is 6h)")
+				.addOption(null, PROBE_HEDGE, true, "Also probe with GET when HEAD is slower than this percentile of earlier probes, for example 95 (default is no hedging)")
+				.addOption(null, PROBE_TIMEOUT_MIN, true, "Shortest timeout for a host that has responded before, learned from its latency (default is 1s)")
+				.addOption(null, PROBE_TIMEOUT_MAX, true, "Longest timeout for a host that has responded before, learned from its latency (default is 15s)")
+				.addOption(null, PROBE_FAILURES, true, "Report a link as bad when it has failed this many probes in a row (default is 2)")
+				.addOption(null, PROBE_BUDGET, true, "Stop probing after this long, for example 30s or 2m; links not probed are kept and probed first next time (default is no limit)")
+				.addOption(null, PROBE_CRAWL, true, "When watching, probe links in the background, at most this many per minute; exports only use earlier probe results (default is to probe when exporting)")
+				.addOption(null, PROBE_QUEUE, true, "Queue links to probe in this directory, and share the probing with worker processes (default is to probe in this process only)")
+				.addOption(null, PROBE_WORKER, true, "Run as a worker: probe links queued in this directory, until none has been queued for a minute (no export)");
 	}
 
 	public ActiveOptions parse(String... args) throws ParseException {
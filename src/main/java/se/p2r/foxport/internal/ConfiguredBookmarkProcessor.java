@@ -27,6 +27,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 import org.apache.commons.collections4.ListValuedMap;
@@ -56,17 +57,20 @@ import se.p2r.foxport.util.Utils;
  */
 public class ConfiguredBookmarkProcessor extends BookmarkProcessor {
 
-	public ConfiguredBookmarkProcessor(BrowserType browserType, File targetFolder, boolean isTree, boolean isForceExport, long timestamp, LinkTester linkTester) throws ConfigurationException {
-		super(browserType, targetFolder, isTree, isForceExport, timestamp, linkTester);
+	public ConfiguredBookmarkProcessor(BrowserType browserType, File targetFolder, boolean isTree, boolean isForceExport, boolean useSnapshot, boolean useCompact, int parallelism, ExportState state, LinkTester linkTester) throws ConfigurationException {
+		super(browserType, targetFolder, isTree, isForceExport, useSnapshot, useCompact, parallelism, state, linkTester);
 	}
 
 	public List<File> process(File cfgFile) throws IOException, ConfigurationException {
 		Properties config = Utils.loadPropertyFile(cfgFile, Utils.ISO8859);
-		BookmarkReader reader = BookmarkReader.Factory.makeReader(browserType);
+		BookmarkReader reader = makeReader();
 
 		if (needsUpdate(reader, cfgFile)) {
-			Bookmark bookmarksRoot = reader.load();
 			Map<String, String> mappings = mapNames(config);
+			Collection<String> folderNames = mappings.values();
+
+			// skip root containers not mentioned in config already when parsing
+			Bookmark bookmarksRoot = reader.load(p -> match(folderNames, p));
 
 			// first select root containers mentioned in config (avoid trash, tmp, private,
 			// etc)
@@ -81,11 +85,17 @@ public class ConfiguredBookmarkProcessor extends BookmarkProcessor {
 	}
 
 	protected boolean needsUpdate(BookmarkReader reader, File cfgFile) {
-		return cfgFile.lastModified() > timestamp || needsUpdate(reader);
+		if (cfgFile.lastModified() > timestamp) {
+			recordContentKey(reader);
+			return true;
+		}
+		return needsUpdate(reader);
 	}
 	
 	private List<File> export(Properties config, ListValuedMap<String, Bookmark> selectedContainers, Map<String, String> mappings) {
-		List<File> files = new ArrayList();
+		List<Callable<File>> tasks = new ArrayList();
+		List<String> ids = new ArrayList();
+		List<Bookmark> roots = new ArrayList();
 		// process each selected folder
 		for (String folderName : selectedContainers.keySet()) {
 			String id = getMappedID(mappings, folderName);
@@ -93,8 +103,13 @@ public class ConfiguredBookmarkProcessor extends BookmarkProcessor {
 			List<Bookmark> containers = selectedContainers.get(folderName);
 			assert !containers.isEmpty() : "No containers for title: " + folderName;
 			Bookmark root = containers.size() == 1 ? containers.iterator().next() : merge(id, folderName, containers);
-			files.add(processContainer(id, root, description));
+			ids.add(id);
+			roots.add(root);
+			tasks.add(() -> processContainer(id, root, description));
 		}
+		probeLinks(roots);
+		List<File> files = exportAll(tasks);
+		state.retainExportHashes(ids);
 
 		return files;
 	}
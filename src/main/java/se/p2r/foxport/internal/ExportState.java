@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Properties;
+
+import se.p2r.foxport.BookmarkExporter;
+import se.p2r.foxport.util.Log;
+
+/**
+ * <p>
+ * What we know about the previous successful run, kept in the target folder:
+ * the time of the run (last modified time of the timestamp file) and the
+ * content key of the bookmarks that were exported (see
+ * {@link se.p2r.foxport.BookmarkReader#getContentKey()}) and the hash of each
+ * exported file (see {@link se.p2r.foxport.util.SubtreeHash}).
+ * </p>
+ * <p>
+ * Changes are only recorded by {@link #store()}, which should be called when a
+ * run ends happily.
+ * </p>
+ * 
+ * @author peer
+ *
+ */
+public class ExportState {
+
+	private static final String CONTENT_KEY = "contentKey";
+	private static final String HASH_PREFIX = "hash.";
+
+	private final File timestampFile;
+	private final File stateFile;
+	private final long timestamp;
+	private final long startTime = System.currentTimeMillis();
+	private final Properties properties = new Properties();
+
+	public ExportState(File targetFolder) {
+		this.timestampFile = new File(targetFolder, BookmarkExporter.class.getName() + ".timestamp");
+		this.stateFile = new File(targetFolder, BookmarkExporter.class.getName() + ".state");
+		this.timestamp = timestampFile.lastModified(); // returns 0 if not existing
+		if (stateFile.isFile()) {
+			try (InputStream in = Files.newInputStream(stateFile.toPath())) {
+				properties.load(in);
+			} catch (IOException e) {
+				Log.warn("Ignoring state file " + stateFile + ": " + e.getMessage());
+				properties.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return time of the previous successful run (ms), or 0 if there was none
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return content key recorded by the previous successful run, or
+	 *         <code>null</code>
+	 */
+	public String getContentKey() {
+		return properties.getProperty(CONTENT_KEY);
+	}
+
+	/**
+	 * @param contentKey content key of the bookmarks exported by this run, or
+	 *                   <code>null</code> if not known
+	 */
+	public void setContentKey(String contentKey) {
+		if (contentKey == null) {
+			properties.remove(CONTENT_KEY);
+		} else {
+			properties.setProperty(CONTENT_KEY, contentKey);
+		}
+	}
+
+	/**
+	 * @param exportId
+	 * @return hash of the file exported for the id by the previous successful
+	 *         run, or <code>null</code>
+	 */
+	public String getExportHash(String exportId) {
+		return properties.getProperty(HASH_PREFIX + exportId);
+	}
+
+	public void setExportHash(String exportId, String hash) {
+		properties.setProperty(HASH_PREFIX + exportId, hash);
+	}
+
+	/**
+	 * Forget the export hashes of all other ids, so that ids no longer exported
+	 * do not linger.
+	 * 
+	 * @param exportIds the ids exported by this run
+	 */
+	public void retainExportHashes(Collection<String> exportIds) {
+		properties.keySet().removeIf(key -> {
+			String s = (String) key;
+			return s.startsWith(HASH_PREFIX) && !exportIds.contains(s.substring(HASH_PREFIX.length()));
+		});
+	}
+
+	/**
+	 * Mark the time of this run and record the state. The time marked is when
+	 * this state was created (start of the run), so that bookmarks saved while
+	 * running are exported by the next run.
+	 * 
+	 * @throws IOException
+	 */
+	public void store() throws IOException {
+		File tmp = new File(stateFile.getPath() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+			properties.store(out, "Written by " + BookmarkExporter.class.getName());
+		}
+		Files.move(tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		timestampFile.createNewFile();  // does nothing if file already exists
+		timestampFile.setLastModified(startTime);
+	}
+
+}
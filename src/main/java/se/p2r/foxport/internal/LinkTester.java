@@ -15,26 +15,37 @@ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
 */
 package se.p2r.foxport.internal;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.net.LinkCrawler;
+import se.p2r.foxport.net.LinkHealth;
+import se.p2r.foxport.net.LinkProber;
+import se.p2r.foxport.net.ProbeCache;
+import se.p2r.foxport.net.ProbeResult;
 import se.p2r.foxport.util.Log;
 import se.p2r.foxport.util.StringPrinter;
+import se.p2r.foxport.util.UrlNormalizer;
 
 /**
- * Test links by looking up host name and checking response of URL get. 
+ * Test links by looking up host name and checking response of URL get. Links
+ * are probed up front, concurrently, by {@link #probe(Collection)}; testing a
+ * bookmark while generating HTML is then only a lookup, reported per bookmark.
+ * Links are keyed on their normalized URL (see {@link UrlNormalizer}), so each
+ * target is probed once per run however many bookmarks refer to it.
+ * With a probe cache, a link is reported as bad only when it has failed a
+ * number of times in a row (see {@link LinkHealth}); until then it is kept,
+ * and listed as failing.
+ * Thread safe: root folders may be exported in parallel.
  * 
  * @author peer
  *
@@ -42,118 +53,207 @@ import se.p2r.foxport.util.StringPrinter;
 public class LinkTester {
 
 	private final boolean enabled;
-	private final LinkConnector connector = new LinkConnector();
+	private final LinkProber prober;
+	private final int failuresToReport;
+	private final Map<String, ProbeResult> results = new ConcurrentHashMap();
+	private LinkCrawler crawler = null;
 	
 	private int errorCtr = 0;
 	private int movedCtr = 0;
+	private int failingCtr = 0;
 	private Map<String, Collection<Bookmark>> badLinks = new TreeMap();
 	private Map<String, Collection<Bookmark>> movedLinks = new TreeMap();
+	private Map<String, Collection<Bookmark>> failingLinks = new TreeMap();
+	private Set<Bookmark> notProbed = new HashSet();
+	private Map<Bookmark, String> movedTo = new HashMap();
 
 	public LinkTester(boolean enabled) {
+		this(enabled, new LinkProber());
+	}
+
+	/**
+	 * @param cache probe results kept between runs, or <code>null</code>
+	 */
+	public LinkTester(boolean enabled, ProbeCache cache) {
+		this(enabled, new LinkProber(cache));
+	}
+
+	public LinkTester(boolean enabled, LinkProber prober) {
+		this(enabled, prober, 1);
+	}
+
+	/**
+	 * @param failuresToReport number of failures in a row before a link is
+	 *                         reported as bad (if the prober keeps history)
+	 */
+	public LinkTester(boolean enabled, LinkProber prober, int failuresToReport) {
 		this.enabled = enabled;
+		this.prober = prober;
+		this.failuresToReport = failuresToReport;
+	}
+
+	/**
+	 * Hand the links found by {@link #probe(Collection)} to a crawler, that
+	 * probes them in the background. Exports skipped (bookmarks unchanged) find
+	 * no links, and leave the crawler as it is.
+	 * 
+	 * @param crawler or <code>null</code>
+	 */
+	public void setCrawler(LinkCrawler crawler) {
+		this.crawler = crawler;
 	}
 
-	public int getNumberOfErrors() {
+	public synchronized int getNumberOfErrors() {
 		return errorCtr;
 	}
 	
-	public int getNumberOfMoved() {
+	public synchronized int getNumberOfMoved() {
 		return movedCtr;
 	}
-	
-	public boolean test(Bookmark bm, Stack<Bookmark> trail) {
-		try {
-			return !enabled || doTest(bm, trail);
-		} catch (Exception e) {
-			Log.error(String.format("Unable to verify link: %s (%s) [%s]", bm.getUri(), trail, e.toString()));
-			e.printStackTrace();
-		}
-		return false;
+
+	/**
+	 * @return number of links that failed, but not often enough to be reported
+	 */
+	public synchronized int getNumberOfFailing() {
+		return failingCtr;
 	}
 
-	private boolean doTest(Bookmark bm, Stack<Bookmark> trail) {
-		// parse URI, exit if bad
-		URI uri = null;
-		try {
-			uri = new URI(bm.getUri());
-		} catch (URISyntaxException e1) {
-			return registerBadBookmark(bm, trail, String.format("Bad URI: %s => %s (%s)", bm.getName(), bm.getUri(), trail));
+	/**
+	 * Probe all links in the given root folders (recursively). Links already
+	 * probed in this run are not probed again.
+	 */
+	public void probe(Collection<? extends Bookmark> roots) {
+		if (!enabled) {
+			return;
 		}
-
-		// probe host and URL 
-		boolean hostOK = probeHost(uri, bm, trail);
-		if (hostOK && uri.getScheme().equalsIgnoreCase("http")) {
-			try {
-				return probeURL(bm, uri.toURL(), trail);
-			} catch (IOException e) {
-				String msg = String.format("Cannot verify link: %s => %s (%s) [%s]", bm.getName(), bm.getUri(), trail, e.getMessage());
-				Log.warn(msg, e);
-				return true; // don't skip link
-			}
+		Set<String> targets = new LinkedHashSet();
+		int links = 0;
+		for (Bookmark root : roots) {
+			links += collectLinks(root, targets);
 		}
-		return hostOK;
+		Log.debug(String.format("Found %d links to %d distinct targets", Integer.valueOf(links), Integer.valueOf(targets.size())));
+		if (crawler != null) {
+			crawler.setLinks(targets);
+		}
+		targets.removeAll(results.keySet());
+		results.putAll(prober.probeAll(targets));
 	}
 
-
-	private boolean probeHost(URI uri, Bookmark bm, Stack<Bookmark> trail) {
-		try {
-			Log.debug(String.format("%s: testing host '%s' (%s) ...", bm.getName(), uri.getHost(), trail));
-			InetAddress.getByName(uri.getHost());
-			return true;
-		} catch (UnknownHostException e) {
-			return registerBadBookmark(bm, trail, String.format("Unknown host: %s [%s => %s] (%s)", bm.getUri(), bm.getName(), bm.getUri(), trail));
+	private static int collectLinks(Bookmark bm, Set<String> targets) {
+		if (bm.isLink()) {
+			if (bm.getUri() != null) {
+				targets.add(UrlNormalizer.normalize(bm.getUri()));
+			}
+			return 1;
 		}
+		int links = 0;
+		if (bm.hasChildren()) {
+			for (Bookmark child : bm.getChildren()) {
+				links += collectLinks(child, targets);
+			}
+		}
+		return links;
 	}
 
 	/**
-	 * @see "https://developer.mozilla.org/en-US/docs/Web/HTTP/Status"
-	 * @see "https://stackoverflow.com/questions/1378199/how-to-check-if-a-url-exists-or-returns-404-with-java"
+	 * Report the probe result of a link. Links that were not probed up front are
+	 * probed now (still only once, also if several threads ask for the same
+	 * target), unless the time for probing is limited or links are probed in
+	 * the background: then they are not probed, so a generator never waits for
+	 * the network.
+	 * 
+	 * @return <code>true</code> if the link should be kept
 	 */
-	private boolean probeURL(Bookmark bm, URL url, Stack<Bookmark> trail) throws IOException {
-		Log.debug(String.format("%s: testing URL '%s' (%s) ...", bm.getName(), url, trail));
-		int responseCode = connector.connect(url);
-		
-		switch (responseCode) {
-
-		// OK 
-		case HttpURLConnection.HTTP_OK: // 200
-		case HttpURLConnection.HTTP_ACCEPTED: // 202
-		case HttpURLConnection.HTTP_MOVED_TEMP: // 302
-		case HttpURLConnection.HTTP_NOT_MODIFIED: // 304
-		case 307:
+	public boolean test(Bookmark bm, Stack<Bookmark> trail) {
+		if (!enabled) {
 			return true;
+		}
+		String target = UrlNormalizer.normalize(bm.getUri());
+		ProbeResult result;
+		if (target == null) {
+			result = prober.probe(null);
+		} else if (prober.hasBudget() || prober.isCacheOnly()) {
+			result = results.getOrDefault(target, ProbeResult.deferred());
+		} else {
+			result = results.computeIfAbsent(target, prober::probe);
+		}
+		return report(bm, trail, target, result);
+	}
 
-		// permanently redirected
-		case HttpURLConnection.HTTP_MOVED_PERM: // 301
-		case HttpURLConnection.HTTP_SEE_OTHER: // 303
-		case 308:
-			return registerMovedBookmark(bm, trail, responseCode);
-
-		// no response
-		case HttpURLConnection.HTTP_CLIENT_TIMEOUT: // 408
-			return registerBadBookmark(bm, trail, String.format("Timeout on link (%d): %s => %s (%s)", Integer.valueOf(responseCode), bm.getName(), bm.getUri(), trail));
-			
-		// Everything else is a failure
+	private boolean report(Bookmark bm, Stack<Bookmark> trail, String target, ProbeResult result) {
+		if (LinkHealth.isFailure(result.getOutcome())) {
+			int failures = getConsecutiveFailures(target, result);
+			if (failures < failuresToReport) {
+				return registerFailingBookmark(bm, trail, String.format("Link failed (%d of %d times before reported): %s => %s (%s) [%s]", 
+						Integer.valueOf(failures), Integer.valueOf(failuresToReport), bm.getName(), bm.getUri(), trail, result));
+			}
+		}
+		Integer responseCode = Integer.valueOf(result.getResponseCode());
+		switch (result.getOutcome()) {
+		case OK:
+			return true;
+		case MOVED:
+			return registerMovedBookmark(bm, trail, result);
+		case BAD_URI:
+			return registerBadBookmark(bm, trail, String.format("Bad URI: %s => %s (%s)", bm.getName(), bm.getUri(), trail));
+		case UNKNOWN_HOST:
+			return registerBadBookmark(bm, trail, String.format("Unknown host: %s [%s => %s] (%s)", bm.getUri(), bm.getName(), bm.getUri(), trail));
+		case TIMEOUT:
+			if (result.isShortCircuited()) {
+				return registerNotProbedBookmark(bm, trail, String.format("Timeout on host, link not probed: %s => %s (%s) [%s]", bm.getName(), bm.getUri(), trail, result.getDetail()));
+			}
+			return registerBadBookmark(bm, trail, String.format("Timeout on link (%d): %s => %s (%s)", responseCode, bm.getName(), bm.getUri(), trail));
+		case UNRESOLVED:
+			return registerBadBookmark(bm, trail, String.format("Unresolved link (%d): %s => %s (%s)", responseCode, bm.getName(), bm.getUri(), trail));
+		case UNVERIFIED:
+			Log.warn(String.format("Cannot verify link: %s => %s (%s) [%s]", bm.getName(), bm.getUri(), trail, result.getDetail()));
+			return true; // don't skip link
 		default:
-			return registerBadBookmark(bm, trail, String.format("Unresolved link (%d): %s => %s (%s)", Integer.valueOf(responseCode), bm.getName(), bm.getUri(), trail));
+			Log.error(String.format("Unable to verify link: %s (%s) [%s]", bm.getUri(), trail, result.getDetail()));
+			return false;
+		}
+	}
+
+	/* failures in a row, this one included */
+	private int getConsecutiveFailures(String target, ProbeResult result) {
+		LinkHealth health = prober.getHealth(target);
+		if (health == null) {
+			return failuresToReport; // no history, report at once
 		}
+		// a link skipped by the circuit breaker was not probed, its history does not include this run
+		return health.getConsecutiveFailures() + (result.isShortCircuited() ? 1 : 0);
+	}
+
+	private synchronized boolean registerFailingBookmark(Bookmark bm, Stack<Bookmark> trail, String msg) {
+		register(failingLinks, bm, trail);
+		failingCtr++;
+		Log.warn(msg);
+		return true; // keep link
 	}
 
-	private boolean registerMovedBookmark(Bookmark bm, Stack<Bookmark> trail, int responseCode) {
+	private synchronized boolean registerMovedBookmark(Bookmark bm, Stack<Bookmark> trail, ProbeResult result) {
 		register(movedLinks, bm, trail);
 		movedCtr++;
-		String msg = String.format("URL moved (%d): %s => %s (%s)", Integer.valueOf(responseCode), bm.getName(), bm.getUri(), trail);
+		if (result.getFinalUrl() != null) {
+			movedTo.put(bm, result.getFinalUrl());
+		}
+		String msg = String.format("URL moved (%d): %s => %s -> %s (%s)", Integer.valueOf(result.getResponseCode()), bm.getName(), bm.getUri(), result.getFinalUrl(), trail);
 		Log.warn(msg);
 		return true;
 	}
 
-	private boolean registerBadBookmark(Bookmark bm, Stack<Bookmark> trail, String msg) {
+	private synchronized boolean registerBadBookmark(Bookmark bm, Stack<Bookmark> trail, String msg) {
 		register(badLinks, bm, trail);
 		errorCtr++;
 		Log.warn(msg);
 		return false;
 	}
 
+	private synchronized boolean registerNotProbedBookmark(Bookmark bm, Stack<Bookmark> trail, String msg) {
+		notProbed.add(bm);
+		return registerBadBookmark(bm, trail, msg);
+	}
+
 	private void register(Map<String, Collection<Bookmark>> badLinks2, Bookmark bm, Stack<Bookmark> trail) {
 		String key = trail.toString();
 		Collection<Bookmark> values = badLinks2.get(key);
@@ -172,7 +272,7 @@ public class LinkTester {
 		return dump("");
 	}
 
-	public String dump(String hdr) {
+	public synchronized String dump(String hdr) {
 		StringPrinter p = new StringPrinter(hdr);
 		dump(p);
 		return p.close();
@@ -180,11 +280,30 @@ public class LinkTester {
 
 	private void dump(StringPrinter out) {
 		out.println(String.format("<%d BAD LINKS>", Integer.valueOf(errorCtr)));
+		if (!notProbed.isEmpty()) {
+			out.println(String.format("<%d of them not probed, their host did not respond>", Integer.valueOf(notProbed.size())));
+		}
 		dump(out, badLinks);
 
 		out.println();
 		out.println(String.format("<%d MOVED LINKS>", Integer.valueOf(movedCtr)));
 		dump(out, movedLinks);
+
+		if (failingCtr > 0) {
+			out.println();
+			out.println(String.format("<%d FAILING LINKS, kept until they fail %d times in a row>", Integer.valueOf(failingCtr), Integer.valueOf(failuresToReport)));
+			dump(out, failingLinks);
+		}
+	}
+
+	private String annotation(Bookmark link) {
+		if (notProbed.contains(link)) {
+			return "\t(not probed)";
+		}
+		if (movedTo.containsKey(link)) {
+			return "\t-> [" + movedTo.get(link) + "]";
+		}
+		return "";
 	}
 
 	private void dump(StringPrinter out, Map<String, Collection<Bookmark>> map) {
@@ -196,7 +315,7 @@ public class LinkTester {
 			out.println(hdr);
 	
 			for (Bookmark link: links) {
-				String msg = String.format("\t%s\t[%s]", link.getName(), link.getUri());
+				String msg = String.format("\t%s\t[%s]%s", link.getName(), link.getUri(), annotation(link));
 				out.println(msg);
 			}
 		}
@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import se.p2r.foxport.util.LatencyHistogram;
+
+/**
+ * Latency observed for one host: time to connect and time from connected to
+ * the first byte of the response. Kept between runs in the
+ * {@link ProbeCache}. Recent latency counts the most: when a histogram holds
+ * {@link #WINDOW} samples, it is decayed (see {@link LatencyHistogram#decay()}),
+ * so a host that slows down gets a longer timeout after a few requests.
+ * Thread safe.
+ * 
+ * @author peer
+ * @see HostTimeouts
+ */
+public final class HostLatency {
+
+	public static final int WINDOW = 64;
+
+	private final LatencyHistogram connect;
+	private final LatencyHistogram firstByte;
+	private volatile long updated;
+	private volatile boolean changed = false;
+
+	HostLatency() {
+		this(new LatencyHistogram(), new LatencyHistogram(), 0);
+	}
+
+	HostLatency(LatencyHistogram connect, LatencyHistogram firstByte, long updated) {
+		this.connect = connect;
+		this.firstByte = firstByte;
+		this.updated = updated;
+	}
+
+	/**
+	 * Record a request that got a response.
+	 */
+	public void record(long connectMillis, long firstByteMillis) {
+		connect.record(connectMillis);
+		firstByte.record(firstByteMillis);
+		touch();
+		age(connect);
+		age(firstByte);
+	}
+
+	/**
+	 * Record a request that got no response in time, so that the timeout of a
+	 * host that became slow grows again.
+	 */
+	public void recordTimeout(long millis) {
+		firstByte.record(millis);
+		touch();
+		age(firstByte);
+	}
+
+	public LatencyHistogram getConnect() {
+		return connect;
+	}
+
+	public LatencyHistogram getFirstByte() {
+		return firstByte;
+	}
+
+	/**
+	 * @return when last recorded (ms since epoch)
+	 */
+	public long getUpdated() {
+		return updated;
+	}
+
+	/* recorded since loaded or saved */
+	boolean isChanged() {
+		return changed;
+	}
+
+	void saved() {
+		changed = false;
+	}
+
+	private synchronized void age(LatencyHistogram histogram) {
+		if (histogram.getCount() >= WINDOW) {
+			histogram.decay();
+		}
+	}
+
+	private void touch() {
+		updated = System.currentTimeMillis();
+		changed = true;
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.p2r.foxport.internal.exceptions.FatalException;
+import se.p2r.foxport.util.Log;
+
+/**
+ * Resolves host names once per run and remembers the answer, known or
+ * unknown. The hosts of all links are resolved concurrently before probing
+ * starts, so checking a host while probing is a lookup.
+ * Thread safe.
+ * 
+ * @author peer
+ *
+ */
+public class HostResolver {
+
+	private final int workers;
+	private final Map<String, Boolean> known = new ConcurrentHashMap();
+
+	public HostResolver(int workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Resolve hosts not resolved before, concurrently; wait until done.
+	 */
+	public void resolveAll(Collection<String> hosts) {
+		resolveAll(hosts, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Resolve hosts not resolved before, concurrently; wait until done, but not
+	 * past the deadline. Hosts not resolved by then are resolved when asked.
+	 * 
+	 * @param deadline ms since epoch
+	 */
+	public void resolveAll(Collection<String> hosts, long deadline) {
+		List<String> unresolved = new ArrayList();
+		for (String host : hosts) {
+			if (host != null && !known.containsKey(host.toLowerCase())) {
+				unresolved.add(host.toLowerCase());
+			}
+		}
+		if (unresolved.isEmpty()) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		AtomicInteger counter = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, unresolved.size()), r -> {
+			Thread t = new Thread(r, "host-resolver-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			for (String host : unresolved) {
+				pool.execute(() -> isKnown(host));
+			}
+			pool.shutdown();
+			pool.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FatalException("Interrupted while resolving hosts", e);
+		} finally {
+			pool.shutdownNow();
+		}
+		long resolved = unresolved.stream().filter(known::containsKey).count();
+		long unknown = unresolved.stream().filter(host -> Boolean.FALSE.equals(known.get(host))).count();
+		Log.log(String.format("Resolved %d hosts in %d ms (%d unknown)", Long.valueOf(resolved), Long.valueOf(System.currentTimeMillis() - start), Long.valueOf(unknown)));
+	}
+
+	/**
+	 * @param host a host name, or <code>null</code> for links without host (always known)
+	 * @return <code>false</code> if the host name cannot be resolved
+	 */
+	public boolean isKnown(String host) {
+		if (host == null) {
+			return true;
+		}
+		// not computeIfAbsent(), that would hold a lock while waiting for DNS
+		String key = host.toLowerCase();
+		Boolean result = known.get(key);
+		if (result == null) {
+			result = lookup(key);
+			known.put(key, result);
+		}
+		return result.booleanValue();
+	}
+
+	private static Boolean lookup(String host) {
+		try {
+			Log.debug(String.format("Resolving host '%s' ...", host));
+			InetAddress.getByName(host);
+			return Boolean.TRUE;
+		} catch (UnknownHostException e) {
+			return Boolean.FALSE;
+		}
+	}
+
+}
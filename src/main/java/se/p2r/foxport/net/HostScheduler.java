@@ -0,0 +1,191 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * Hands out links to probe so that each host gets at most a few concurrent
+ * requests, spaced a minimum time apart; links on other hosts are probed
+ * meanwhile. After a number of consecutive timeouts (or failures to connect)
+ * on a host, its circuit opens: the links not yet handed out are not probed
+ * but returned to the caller, see {@link #done(String, ProbeResult)}.
+ * Thread safe.
+ * 
+ * @author peer
+ *
+ */
+public class HostScheduler {
+
+	private static final class Host {
+		final String name;
+		final LinkedList<String> queue = new LinkedList();
+		int active = 0;
+		long nextStart = 0;
+		int failures = 0;
+		boolean open = false;
+
+		Host(String name) {
+			this.name = name;
+		}
+	}
+
+	private final int perHost;
+	private final long spacing;
+	private final int threshold;
+	private final Map<String, Host> hosts = new HashMap();
+	private final Map<String, Host> hostOfLink = new HashMap();
+	private final List<Host> waiting = new ArrayList();
+	private int queued = 0;
+
+	/**
+	 * @param perHost   maximum number of concurrent requests to a host
+	 * @param spacing   minimum time between the start of two requests to a host
+	 *                  (ms)
+	 * @param threshold consecutive timeouts on a host that open its circuit, 0
+	 *                  to never open
+	 */
+	public HostScheduler(int perHost, long spacing, int threshold) {
+		this.perHost = perHost;
+		this.spacing = spacing;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @param link
+	 * @param host host of the link, or <code>null</code> if it has none (not
+	 *             limited)
+	 */
+	public synchronized void add(String link, String host) {
+		String key = host == null ? link : host.toLowerCase();
+		Host h = hosts.get(key);
+		if (h == null) {
+			h = new Host(key);
+			hosts.put(key, h);
+		}
+		if (h.queue.isEmpty() && !waiting.contains(h)) {
+			waiting.add(h);
+		}
+		h.queue.add(link);
+		hostOfLink.put(link, h);
+		queued++;
+		notifyAll();
+	}
+
+	/**
+	 * Wait until a link may be probed.
+	 * 
+	 * @return the link, or <code>null</code> if all links were handed out
+	 */
+	public String next() throws InterruptedException {
+		return next(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Wait until a link may be probed, but not past the deadline.
+	 * 
+	 * @param deadline ms since epoch
+	 * @return the link, or <code>null</code> if all links were handed out or
+	 *         the deadline has passed
+	 */
+	public synchronized String next(long deadline) throws InterruptedException {
+		while (queued > 0) {
+			long now = System.currentTimeMillis();
+			if (now >= deadline) {
+				return null;
+			}
+			long wait = deadline - now;
+			for (Iterator<Host> it = waiting.iterator(); it.hasNext();) {
+				Host h = it.next();
+				if (h.active >= perHost) {
+					continue;
+				}
+				if (h.nextStart > now) {
+					wait = Math.min(wait, h.nextStart - now);
+					continue;
+				}
+				h.active++;
+				h.nextStart = now + spacing;
+				queued--;
+				String link = h.queue.poll();
+				if (h.queue.isEmpty()) {
+					it.remove();
+				} else {
+					// round robin, the next link is taken from another host
+					it.remove();
+					waiting.add(h);
+				}
+				return link;
+			}
+			wait(wait); // until a probe is done, a host may be probed again, or the deadline
+		}
+		return null;
+	}
+
+	/**
+	 * Report a probed link, so the next link on its host may be handed out.
+	 * 
+	 * @return links on the same host that will not be probed because its
+	 *         circuit opened, usually none
+	 */
+	public synchronized List<String> done(String link, ProbeResult result) {
+		Host h = hostOfLink.get(link);
+		if (h == null) {
+			return Collections.emptyList();
+		}
+		h.active--;
+		notifyAll();
+		if (result.getOutcome() != Outcome.TIMEOUT) {
+			h.failures = 0;
+			return Collections.emptyList();
+		}
+		h.failures++;
+		if (h.open || threshold <= 0 || h.failures < threshold) {
+			return Collections.emptyList();
+		}
+		h.open = true;
+		List<String> skipped = new ArrayList(h.queue);
+		queued -= skipped.size();
+		h.queue.clear();
+		waiting.remove(h);
+		return skipped;
+	}
+
+	/**
+	 * @return number of consecutive timeouts on the host of a link
+	 */
+	public synchronized int getFailures(String link) {
+		Host h = hostOfLink.get(link);
+		return h == null ? 0 : h.failures;
+	}
+
+	/**
+	 * @return host name (lower case) of a link that was added
+	 */
+	public synchronized String getHost(String link) {
+		Host h = hostOfLink.get(link);
+		return h == null ? null : h.name;
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Connect and read timeouts per host, a multiple of the latency the host has
+ * shown before (see {@link HostLatency}), clamped to bounds. A fast host
+ * fails fast, a slow but healthy host gets the time it needs. Hosts not seen
+ * often enough get the default timeout. Thread safe.
+ * 
+ * @author peer
+ *
+ */
+public class HostTimeouts {
+
+	public static final double PERCENTILE = 95;
+	public static final int MULTIPLE = 3;
+	public static final int MIN_SAMPLES = 5;
+
+	private final boolean adaptive;
+	private final ProbeCache cache;
+	private final Map<String, HostLatency> hosts = new ConcurrentHashMap();
+	private final int defaultTimeout;
+	private final int min;
+	private final int max;
+
+	/**
+	 * The same timeout for every host.
+	 */
+	public HostTimeouts(int timeout) {
+		this(false, null, timeout, timeout, timeout);
+	}
+
+	/**
+	 * @param cache          where latency is kept between runs, or
+	 *                       <code>null</code> to learn only during this run
+	 * @param defaultTimeout for hosts not seen often enough (ms)
+	 * @param min            lower bound (ms)
+	 * @param max            upper bound (ms)
+	 */
+	public HostTimeouts(ProbeCache cache, int defaultTimeout, int min, int max) {
+		this(true, cache, defaultTimeout, min, max);
+	}
+
+	private HostTimeouts(boolean adaptive, ProbeCache cache, int defaultTimeout, int min, int max) {
+		this.adaptive = adaptive;
+		this.cache = cache;
+		this.defaultTimeout = defaultTimeout;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * @param host host name, or <code>null</code>
+	 * @return the connect timeout (ms)
+	 */
+	public int getConnectTimeout(String host) {
+		HostLatency latency = latency(host);
+		return isKnown(latency) ? clamp(latency.getConnect().getPercentile(PERCENTILE)) : defaultTimeout;
+	}
+
+	/**
+	 * @return the read timeout (ms), the time allowed for the first byte
+	 */
+	public int getReadTimeout(String host) {
+		HostLatency latency = latency(host);
+		return isKnown(latency) ? clamp(latency.getFirstByte().getPercentile(PERCENTILE)) : defaultTimeout;
+	}
+
+	/**
+	 * @return time allowed for the whole request (ms)
+	 */
+	public int getDeadline(String host) {
+		return isKnown(latency(host)) ? getConnectTimeout(host) + getReadTimeout(host) : defaultTimeout;
+	}
+
+	/**
+	 * Record a request that got a response.
+	 */
+	public void record(String host, long connectMillis, long firstByteMillis) {
+		if (adaptive && host != null) {
+			latency(host).record(connectMillis, firstByteMillis);
+		}
+	}
+
+	/**
+	 * Record a request that timed out. Only for hosts that responded before: a
+	 * host that never responds keeps the default timeout.
+	 */
+	public void recordTimeout(String host, long millis) {
+		HostLatency latency = latency(host);
+		if (isKnown(latency)) {
+			latency.recordTimeout(millis);
+		}
+	}
+
+	private HostLatency latency(String host) {
+		if (!adaptive || host == null) {
+			return null;
+		}
+		String key = host.toLowerCase();
+		return cache != null ? cache.getHostLatency(key) : hosts.computeIfAbsent(key, h -> new HostLatency());
+	}
+
+	private static boolean isKnown(HostLatency latency) {
+		return latency != null && latency.getConnect().getCount() >= MIN_SAMPLES;
+	}
+
+	private int clamp(long timeout) {
+		return (int) Math.max(min, Math.min(max, timeout * MULTIPLE));
+	}
+
+}
@@ -0,0 +1,666 @@
+/*
+Copyright (c) 2018, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
+
+import se.p2r.foxport.util.LatencyHistogram;
+import se.p2r.foxport.util.Log;
+
+/**
+ * Connect to an URL and get response code without hanging on bad URLs. Can get input stream to force 
+ * error instead of hanging when getting response code (some pages will not return response code), but we will have a hard time to find proper codes.
+ * Better to use a timer that cancels if no response is returned in time: requests run in the calling thread, 
+ * a timer shared by all connectors disconnects a request that passes its deadline, which closes the socket 
+ * and makes the blocked call fail. Timeouts may differ per host, see {@link HostTimeouts}.
+ * In hedged mode, a HEAD request that is slower than most is raced by a
+ * ranged GET, see {@link #LinkConnector(int, double)}.
+ * Thread safe.
+ * @author peer
+ *
+ * @see "https://community.oracle.com/thread/1147201"
+ */
+public class LinkConnector {
+
+	private static final ScheduledThreadPoolExecutor TIMER = newTimer();
+	private static final ExecutorService HEDGES = newHedgePool();
+
+	/* Disconnects a request at its deadline, unless it completes first. */
+	private static final class Deadline implements Runnable {
+
+		private final HttpURLConnection huc;
+		private final AtomicBoolean settled = new AtomicBoolean();
+		private volatile boolean expired = false;
+
+		private Deadline(HttpURLConnection huc) {
+			this.huc = huc;
+		}
+
+		@Override
+		public void run() {
+			if (settled.compareAndSet(false, true)) {
+				expired = true;
+				huc.disconnect();
+			}
+		}
+
+		/* @return false if the deadline passed first */
+		private boolean complete() {
+			return settled.compareAndSet(false, true);
+		}
+
+		/* disconnect now, unless completed */
+		private void cancel() {
+			if (settled.compareAndSet(false, true)) {
+				huc.disconnect();
+			}
+		}
+	}
+
+	/* A request that another thread may cancel, the loser of a hedged fetch. */
+	private static final class Call {
+
+		private volatile Deadline deadline;
+		private volatile boolean cancelled = false;
+
+		private void start(Deadline d) {
+			deadline = d;
+			if (cancelled) {
+				d.cancel();
+			}
+		}
+
+		private void cancel() {
+			cancelled = true;
+			Deadline d = deadline;
+			if (d != null) {
+				d.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Response code and the URL that gave it, and how it was reached.
+	 */
+	public static final class Response {
+		private final int responseCode;
+		private final URL url;
+		private final URL location;
+		private final String etag;
+		private final String lastModified;
+		private final int redirects;
+		private final int redirectCode;
+		private final boolean moved;
+		private final String redirectError;
+
+		Response(int responseCode, URL url) {
+			this(responseCode, url, null, null, null);
+		}
+
+		Response(int responseCode, URL url, URL location, String etag, String lastModified) {
+			this(responseCode, url, location, etag, lastModified, 0, 0, false, null);
+		}
+
+		private Response(int responseCode, URL url, URL location, String etag, String lastModified, int redirects, int redirectCode, boolean moved, String redirectError) {
+			this.responseCode = responseCode;
+			this.url = url;
+			this.location = location;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.redirects = redirects;
+			this.redirectCode = redirectCode;
+			this.moved = moved;
+			this.redirectError = redirectError;
+		}
+
+		/* this response, at the end of a chain of redirects */
+		Response redirected(int redirectCount, int firstRedirectCode, boolean permanentlyMoved, String error) {
+			return new Response(responseCode, url, location, etag, lastModified, redirectCount, firstRedirectCode, permanentlyMoved, error);
+		}
+
+		public int getResponseCode() {
+			return responseCode;
+		}
+
+		/**
+		 * @return the URL after redirects; for a redirect that was not followed
+		 *         (see {@link #getRedirectError()}), the redirect target
+		 */
+		public URL getURL() {
+			return url;
+		}
+
+		/**
+		 * @return the redirect target of a single redirect, or <code>null</code>
+		 *         if the response is not a redirect
+		 */
+		URL getLocation() {
+			return location;
+		}
+
+		/**
+		 * @return number of redirects followed
+		 */
+		public int getRedirects() {
+			return redirects;
+		}
+
+		/**
+		 * @return response code of the first redirect, or 0 if not redirected
+		 */
+		public int getRedirectCode() {
+			return redirectCode;
+		}
+
+		/**
+		 * @return <code>true</code> if all redirects were permanent, to another
+		 *         URL than the same with https
+		 */
+		public boolean isMoved() {
+			return moved;
+		}
+
+		/**
+		 * @return why redirects were not followed to the end (too many, or a
+		 *         loop), or <code>null</code>
+		 */
+		public String getRedirectError() {
+			return redirectError;
+		}
+
+		/**
+		 * @return the <code>ETag</code> header, or <code>null</code>
+		 */
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * @return the <code>Last-Modified</code> header, or <code>null</code>
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private static final int TIMED_OUT = -1;
+	private static final int MAX_DRAIN = 8 * 1024;
+	private static final int MIN_HEDGE_SAMPLES = 20;
+	private static final long MIN_HEDGE_DELAY = 50; // not for jitter
+	static final int HEDGE_THREADS = LinkProber.DEFAULT_WORKERS; // shared by all connectors
+
+	private final HostTimeouts timeouts;
+	private final double hedgePercentile;
+	private final LatencyHistogram headLatency = new LatencyHistogram();
+	private final AtomicLong hedged = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong hedgesSkipped = new AtomicLong();
+	private final RedirectResolver redirects = new RedirectResolver(this);
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger peakActive = new AtomicInteger();
+
+	public static final int DEFAULT_TIMEOUT = 3000;
+
+	public LinkConnector() {
+		this(DEFAULT_TIMEOUT);
+	}
+
+	public LinkConnector(int timeoutMilliseconds) {
+		this(timeoutMilliseconds, 0);
+	}
+
+	/**
+	 * @param timeoutMilliseconds
+	 * @param hedgePercentile     for example 95, or 0 for no hedging
+	 * @see #LinkConnector(HostTimeouts, double)
+	 */
+	public LinkConnector(int timeoutMilliseconds, double hedgePercentile) {
+		this(new HostTimeouts(timeoutMilliseconds), hedgePercentile);
+	}
+
+	/**
+	 * Hedged mode: if HEAD has not answered within the given percentile of
+	 * earlier HEAD latencies, a ranged GET is sent as well. The first
+	 * definitive answer wins, the other request is disconnected. Trades a few
+	 * extra requests for a shorter tail.
+	 * 
+	 * @param timeouts        per host, learned from the latency of earlier
+	 *                        requests
+	 * @param hedgePercentile for example 95, or 0 for no hedging
+	 */
+	public LinkConnector(HostTimeouts timeouts, double hedgePercentile) {
+		this.timeouts = timeouts;
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	/**
+	 * @param url
+	 * @return HTTP response code (example: 200, 404), or the code of the first
+	 *         redirect if the link moved (example: 301)
+	 * @throws IOException
+	 * @throws ProtocolException
+	 */
+	public int connect(URL url) throws IOException, ProtocolException {
+		Response response = request(url);
+		return response.isMoved() ? response.getRedirectCode() : response.getResponseCode();
+	}
+
+	/**
+	 * @param url
+	 * @return response code and final URL
+	 * @throws IOException
+	 * @throws ProtocolException
+	 */
+	public Response request(URL url) throws IOException, ProtocolException {
+		return request(url, null, null);
+	}
+
+	/**
+	 * Redirects are followed by a {@link RedirectResolver}, so the response
+	 * tells where the link ends up and whether it moved permanently.
+	 * Revalidate a link that responded before: the request is conditional, so
+	 * an unchanged page is confirmed with <code>304 Not Modified</code> and no
+	 * body.
+	 * 
+	 * @param url
+	 * @param etag         from the previous response, or <code>null</code>
+	 * @param lastModified from the previous response, or <code>null</code>
+	 * @return response code and final URL
+	 * @throws IOException
+	 * @throws ProtocolException
+	 */
+	public Response request(URL url, String etag, String lastModified) throws IOException, ProtocolException {
+		return redirects.resolve(url, etag, lastModified);
+	}
+
+	/* a single request, redirects are not followed */
+	Response fetch(URL url, String etag, String lastModified) throws IOException, ProtocolException {
+		long delay = hedgeDelay();
+		if (delay >= 0) {
+			return fetchHedged(url, etag, lastModified, delay);
+		}
+		Response response = head(url, etag, lastModified, null);
+		if (mightWorkWithGET(response.getResponseCode())) {
+			response = doConnect(url, "GET", etag, lastModified, null);
+		}
+		return response;
+	}
+
+	/*
+	 * HEAD in the calling thread, a ranged GET from another thread if HEAD has
+	 * not answered after the delay. A definitive answer from either disconnects
+	 * the other; otherwise the GET answer is used, as without hedging. No GET is
+	 * sent while all hedge threads are busy.
+	 */
+	private Response fetchHedged(URL url, String etag, String lastModified, long delay) throws IOException, ProtocolException {
+		Call headCall = new Call();
+		Call getCall = new Call();
+		CompletableFuture<Response> getResponse = new CompletableFuture();
+		ScheduledFuture<?> launch = TIMER.schedule(() -> {
+			try {
+				HEDGES.execute(() -> {
+					hedged.incrementAndGet();
+					try {
+						Response response = doConnect(url, "GET", etag, lastModified, getCall);
+						getResponse.complete(response);
+						if (isDefinitive(response)) {
+							headCall.cancel();
+						}
+					} catch (IOException | RuntimeException e) {
+						getResponse.completeExceptionally(e);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				hedgesSkipped.incrementAndGet();
+				getResponse.complete(null);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+
+		Response response;
+		try {
+			response = head(url, etag, lastModified, headCall);
+		} catch (IOException | RuntimeException e) {
+			launch.cancel(false);
+			getCall.cancel();
+			throw e;
+		}
+		if (launch.cancel(false)) {
+			// HEAD answered in time, no GET sent
+			return mightWorkWithGET(response.getResponseCode()) ? doConnect(url, "GET", etag, lastModified, null) : response;
+		}
+		if (isDefinitive(response)) {
+			getCall.cancel();
+			return response;
+		}
+		Response hedge = await(getResponse);
+		if (hedge == null) {
+			// hedge threads busy, no GET sent
+			return mightWorkWithGET(response.getResponseCode()) ? doConnect(url, "GET", etag, lastModified, null) : response;
+		}
+		if (hedge.getResponseCode() == HttpURLConnection.HTTP_CLIENT_TIMEOUT && response.getResponseCode() != HttpURLConnection.HTTP_CLIENT_TIMEOUT) {
+			return response;
+		}
+		hedgeWins.incrementAndGet();
+		return hedge;
+	}
+
+	private Response head(URL url, String etag, String lastModified, Call call) throws IOException, ProtocolException {
+		long start = System.currentTimeMillis();
+		Response response = doConnect(url, "HEAD", etag, lastModified, call);
+		if (call == null || !call.cancelled) {
+			headLatency.record(System.currentTimeMillis() - start);
+		}
+		return response;
+	}
+
+	/* how long HEAD may take before it is hedged, -1 for not hedged */
+	private long hedgeDelay() {
+		if (hedgePercentile <= 0 || headLatency.getCount() < MIN_HEDGE_SAMPLES) {
+			return -1;
+		}
+		return Math.max(MIN_HEDGE_DELAY, headLatency.getPercentile(hedgePercentile));
+	}
+
+	private boolean isDefinitive(Response response) {
+		int code = response.getResponseCode();
+		return code != HttpURLConnection.HTTP_CLIENT_TIMEOUT && !mightWorkWithGET(code);
+	}
+
+	private static Response await(CompletableFuture<Response> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for GET");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private boolean mightWorkWithGET(int code) {
+		switch (code) {
+		case HttpURLConnection.HTTP_NOT_FOUND:
+		case HttpURLConnection.HTTP_BAD_METHOD:
+		case HttpURLConnection.HTTP_FORBIDDEN:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/* Should ideally use "HEAD", but some sites seem to report 404 for "HEAD" whereas "GET" works fine (example: http://www.laget.se/sdg)
+	 * Then again, some sites respond 200 for "GET" but "408" for "HEAD (example: http://hotell.kelkoo.se/Error/PageNotFound?aspxerrorpath=/TrafficInspection/23ff9ee0-6711-11e8-abb1-d56650547a15)
+	 * And some sites respond 405 for "HEAD" but "302" for "GET" (example: http://bose.com)
+	 */
+	private Response doConnect(URL url, String requestMethod, String etag, String lastModified, Call call) throws IOException, ProtocolException {
+		HttpURLConnection huc = null;
+		boolean reusable = false;
+		try {
+			// create connection
+			huc = (HttpURLConnection) url.openConnection();
+			huc.setRequestMethod(requestMethod); 
+			huc.setInstanceFollowRedirects(false); // see RedirectResolver
+			huc.setConnectTimeout(timeouts.getConnectTimeout(url.getHost()));
+			huc.setReadTimeout(timeouts.getReadTimeout(url.getHost()));
+			huc.setRequestProperty("User-Agent", "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; en-US; rv:1.9.2.2) Gecko/20100316 Firefox/3.6.2");
+			if (etag != null) {
+				huc.setRequestProperty("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				huc.setRequestProperty("If-Modified-Since", lastModified);
+			}
+			if (requestMethod.equals("GET")) {
+				huc.setRequestProperty("Range", "bytes=0-0"); // the status is all we want
+			}
+			
+			// probe connection
+			int responseCode = callConnector(huc, call);
+			if (responseCode==TIMED_OUT) {
+				return new Response(HttpURLConnection.HTTP_CLIENT_TIMEOUT, url);
+			}
+			reusable = releaseBody(huc);
+			return toResponse(url, huc, responseCode);
+		} finally {
+			// a connection that was read to the end stays in the JDK's keep-alive cache, for the next link on the same host
+			if (huc!=null && !reusable) {
+				huc.disconnect();
+			}
+		}
+	}
+
+	private Response toResponse(URL url, HttpURLConnection huc, int responseCode) {
+		URL location = redirected(responseCode) ? location(huc, url) : null;
+		return new Response(responseCode, location != null ? location : url, location, huc.getHeaderField("ETag"), huc.getHeaderField("Last-Modified"));
+	}
+
+	/*
+	 * Close the response stream. A small body (such as the single byte of a
+	 * ranged GET) is read to the end first, which lets the connection be
+	 * reused; anything larger is left unread.
+	 * 
+	 * @return true if the connection may be reused
+	 */
+	private static boolean releaseBody(HttpURLConnection huc) {
+		if (huc.getRequestMethod().equals("HEAD")) {
+			return true; // no body, already released
+		}
+		try (InputStream body = huc.getErrorStream() != null ? huc.getErrorStream() : huc.getInputStream()) {
+			byte[] buffer = new byte[1024];
+			for (int total = 0; total < MAX_DRAIN; ) {
+				int n = body.read(buffer);
+				if (n < 0) {
+					return true;
+				}
+				total += n;
+			}
+			return false;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/* the redirect target, or null */
+	private static URL location(HttpURLConnection huc, URL url) {
+		String location = huc.getHeaderField("Location");
+		if (location == null) {
+			return null;
+		}
+		try {
+			return new URL(url, location);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	private boolean redirected(int responseCode) {
+		return responseCode>=300 && responseCode<400 && responseCode!=HttpURLConnection.HTTP_NOT_MODIFIED;
+	}
+
+	/* 
+	 * Response code, or TIMED_OUT if there was no response in time (or no connection). 
+	 * A failed TLS handshake is thrown: the site may be fine, we just cannot verify it.
+	 * A handshake cut off by the deadline is a timeout.
+	 */
+	private int callConnector(HttpURLConnection huc, Call call) throws SSLException {
+		Log.debug("["+huc.getRequestMethod()+"]:"+huc.getURL());
+		Deadline deadline = new Deadline(huc);
+		if (call != null) {
+			call.start(deadline);
+			if (call.cancelled) {
+				return TIMED_OUT; // lost the race before it started
+			}
+		}
+		String host = huc.getURL().getHost();
+		ScheduledFuture<?> timer = TIMER.schedule(deadline, timeouts.getDeadline(host), TimeUnit.MILLISECONDS);
+		requests.incrementAndGet();
+		peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+		long start = System.currentTimeMillis();
+		try {
+			huc.connect();
+			long connected = System.currentTimeMillis();
+			int responseCode = huc.getResponseCode();
+			if (deadline.complete()) {
+				timeouts.record(host, connected - start, System.currentTimeMillis() - connected);
+				return responseCode;
+			}
+			if (deadline.expired) {
+				timeouts.recordTimeout(host, System.currentTimeMillis() - start);
+			}
+			return TIMED_OUT;
+		} catch (SSLException e) {
+			if (deadline.complete()) {
+				throw e;
+			}
+			// disconnected mid-handshake (JDK 8 wraps the closed socket in an SSLException)
+			if (deadline.expired) {
+				timeouts.recordTimeout(host, System.currentTimeMillis() - start);
+			}
+			return TIMED_OUT;
+		} catch (IOException e) {
+			deadline.complete();
+			if (deadline.expired || e instanceof SocketTimeoutException) {
+				timeouts.recordTimeout(host, System.currentTimeMillis() - start);
+			}
+			return TIMED_OUT;
+		} finally {
+			timer.cancel(false);
+			active.decrementAndGet();
+			if (deadline.expired) {
+				cancelled.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return number of redirects remembered
+	 */
+	public int getKnownRedirects() {
+		return redirects.size();
+	}
+
+	/**
+	 * @return number of GET requests sent to hedge a slow HEAD
+	 */
+	public long getHedgedRequests() {
+		return hedged.get();
+	}
+
+	/**
+	 * @return number of hedged fetches answered by the GET
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	/**
+	 * @return number of slow HEAD requests not hedged, all hedge threads being busy
+	 */
+	public long getSkippedHedges() {
+		return hedgesSkipped.get();
+	}
+
+	/**
+	 * @return latency of HEAD requests
+	 */
+	public LatencyHistogram getHeadLatency() {
+		return headLatency;
+	}
+
+	/**
+	 * @return number of requests sent
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of requests disconnected at their deadline
+	 */
+	public long getCancelledRequests() {
+		return cancelled.get();
+	}
+
+	/**
+	 * @return number of threads waiting for a response right now
+	 */
+	public int getActiveRequests() {
+		return active.get();
+	}
+
+	/**
+	 * @return highest number of threads waiting for a response at the same time
+	 */
+	public int getPeakActiveRequests() {
+		return peakActive.get();
+	}
+
+	/**
+	 * @return number of timer threads (shared by all connectors)
+	 */
+	public static int getTimerThreads() {
+		return TIMER.getPoolSize();
+	}
+
+	/* no queue: a hedge is only worth sending right away */
+	private static ExecutorService newHedgePool() {
+		AtomicInteger counter = new AtomicInteger();
+		return new ThreadPoolExecutor(0, HEDGE_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue(), r -> {
+			Thread t = new Thread(r, "link-hedge-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private static ScheduledThreadPoolExecutor newTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "link-deadline");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.setRemoveOnCancelPolicy(true); // most requests complete in time
+		return timer;
+	}
+
+
+
+}
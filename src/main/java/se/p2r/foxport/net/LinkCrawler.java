@@ -0,0 +1,185 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import se.p2r.foxport.util.Log;
+
+/**
+ * Keep the probe cache warm in the background: walk a set of links (typically
+ * those of the latest export) and probe the links never probed, or about to
+ * expire, a batch at a time and at a limited rate. Exports then only read the
+ * cache (see {@link LinkProber#setCacheOnly(boolean)}) and never wait for the
+ * network. Links are probed by a {@link LinkProber}, so the limits per host
+ * apply; the crawler itself runs on a daemon thread of low priority.
+ * 
+ * @author peer
+ *
+ */
+public class LinkCrawler implements Closeable {
+
+	private static final int REFRESH_AHEAD = 10; // % of the time to live left
+	private static final int BATCHES_PER_MINUTE = 6;
+	private static final long MINUTE = 60 * 1000;
+	private static final long CLOSE_TIMEOUT = 5000; // ms
+
+	private final LinkProber prober;
+	private final ProbeCache cache;
+	private final int batch;
+	private final long interval; // ms from one batch to the next
+	private final Thread thread;
+	private Set<String> links = Collections.emptySet(); // guarded by this
+	private volatile boolean closed = false;
+	private volatile long crawled = 0;
+
+	/**
+	 * @param prober probes the links, with the cache
+	 * @param cache  shared with exports, closed with the crawler
+	 * @param rate   maximum number of links probed per minute
+	 */
+	public LinkCrawler(LinkProber prober, ProbeCache cache, int rate) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Invalid crawl rate: " + rate);
+		}
+		this.prober = prober;
+		this.cache = cache;
+		this.batch = Math.max(1, rate / BATCHES_PER_MINUTE);
+		this.interval = batch * MINUTE / rate;
+		this.thread = new Thread(this::crawl, "link-crawler");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+	}
+
+	public LinkCrawler start() {
+		thread.start();
+		return this;
+	}
+
+	public ProbeCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @return number of links probed so far
+	 */
+	public long getCrawled() {
+		return crawled;
+	}
+
+	/**
+	 * @return the links crawled
+	 */
+	public synchronized Set<String> getLinks() {
+		return Collections.unmodifiableSet(links);
+	}
+
+	/**
+	 * Crawl these links from now on, instead of those given before.
+	 * 
+	 * @param links normalized links
+	 */
+	public synchronized void setLinks(Collection<String> links) {
+		this.links = new HashSet(links);
+		notifyAll();
+	}
+
+	private void crawl() {
+		Log.log(String.format("Crawling links in the background, %d links every %d s", Integer.valueOf(batch), Long.valueOf(interval / 1000)));
+		while (!closed) {
+			try {
+				long start = System.currentTimeMillis();
+				List<String> due = nextBatch(start);
+				if (due.isEmpty()) {
+					continue;
+				}
+				prober.refresh(due);
+				cache.flush();
+				crawled += due.size();
+				Log.debug(String.format("Crawled %d links (%d in total)", Integer.valueOf(due.size()), Long.valueOf(crawled)));
+				Thread.sleep(Math.max(0, start + interval - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				return; // closed
+			} catch (RuntimeException e) {
+				if (closed) {
+					return;
+				}
+				Log.error("Link crawler failed, trying again later: " + e);
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e1) {
+					return;
+				}
+			}
+		}
+	}
+
+	/*
+	 * The links due first, or none after waiting until the next link is due (or
+	 * the links are replaced).
+	 */
+	private synchronized List<String> nextBatch(long now) throws InterruptedException {
+		List<String> due = new ArrayList();
+		long next = Long.MAX_VALUE;
+		for (String link : links) {
+			long dueAt = dueAt(link);
+			if (dueAt <= now) {
+				due.add(link);
+			} else {
+				next = Math.min(next, dueAt);
+			}
+		}
+		if (due.isEmpty()) {
+			wait(next == Long.MAX_VALUE ? 0 : next - now);
+			return due;
+		}
+		due.sort(Comparator.comparingLong(this::dueAt));
+		return new ArrayList(due.subList(0, Math.min(batch, due.size())));
+	}
+
+	/* a while before the result expires, at once if never probed */
+	private long dueAt(String link) {
+		ProbeResult latest = cache.getLatest(link);
+		if (latest == null) {
+			return 0;
+		}
+		long expires = cache.getExpires(link);
+		return expires - (expires - latest.getTime()) * REFRESH_AHEAD / 100;
+	}
+
+	/**
+	 * Stop crawling, wait a while for probes in progress, and close the cache.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		cache.close();
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * The last outcomes of probing a link, most recent last, at most
+ * {@link #MAX_HISTORY}. Tells a link that has answered for years from one that
+ * flaps. Immutable.
+ * 
+ * @author peer
+ * @see ProbeCache
+ */
+public final class LinkHealth {
+
+	public static final int MAX_HISTORY = 16;
+
+	/* one character per outcome, by ordinal */
+	private static final String CODES = "OMBHTUVF";
+
+	private final String history;
+
+	private LinkHealth(String history) {
+		this.history = history;
+	}
+
+	public static LinkHealth of(Outcome outcome) {
+		return new LinkHealth(code(outcome));
+	}
+
+	/**
+	 * @param encoded from {@link #encode()}
+	 * @throws IllegalArgumentException if not an encoded history
+	 */
+	public static LinkHealth decode(String encoded) {
+		for (char c : encoded.toCharArray()) {
+			if (CODES.indexOf(c) < 0) {
+				throw new IllegalArgumentException("Not a link history: " + encoded);
+			}
+		}
+		return new LinkHealth(encoded.length() > MAX_HISTORY ? encoded.substring(encoded.length() - MAX_HISTORY) : encoded);
+	}
+
+	/**
+	 * @return this history, followed by the outcome
+	 */
+	public LinkHealth with(Outcome outcome) {
+		String next = history + code(outcome);
+		return new LinkHealth(next.length() > MAX_HISTORY ? next.substring(next.length() - MAX_HISTORY) : next);
+	}
+
+	public String encode() {
+		return history;
+	}
+
+	/**
+	 * @return number of outcomes kept
+	 */
+	public int size() {
+		return history.length();
+	}
+
+	/**
+	 * @return number of failures in a row, up to the latest outcome
+	 */
+	public int getConsecutiveFailures() {
+		return streak(true);
+	}
+
+	/**
+	 * @return number of successes in a row, up to the latest outcome
+	 */
+	public int getConsecutiveSuccesses() {
+		return streak(false);
+	}
+
+	/**
+	 * @return <code>true</code> if the link failed at least once in the
+	 *         history kept
+	 */
+	public boolean hasFailed() {
+		for (char c : history.toCharArray()) {
+			if (isFailure(outcome(c))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if the outcome means the link is bad (or the
+	 *         probe failed); an unverified link is neither good nor bad
+	 */
+	public static boolean isFailure(Outcome outcome) {
+		switch (outcome) {
+		case OK:
+		case MOVED:
+		case UNVERIFIED:
+			return false;
+		default:
+			return true;
+		}
+	}
+
+	private int streak(boolean failures) {
+		int n = 0;
+		for (int i = history.length() - 1; i >= 0; i--) {
+			Outcome outcome = outcome(history.charAt(i));
+			boolean success = outcome == Outcome.OK || outcome == Outcome.MOVED;
+			if (failures ? !isFailure(outcome) : !success) {
+				break;
+			}
+			n++;
+		}
+		return n;
+	}
+
+	private static String code(Outcome outcome) {
+		return String.valueOf(CODES.charAt(outcome.ordinal()));
+	}
+
+	private static Outcome outcome(char code) {
+		return Outcome.values()[CODES.indexOf(code)];
+	}
+
+	@Override
+	public String toString() {
+		return history;
+	}
+
+}
@@ -0,0 +1,507 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.p2r.foxport.internal.exceptions.FatalException;
+import se.p2r.foxport.net.ProbeResult.Outcome;
+import se.p2r.foxport.util.LatencyHistogram;
+import se.p2r.foxport.util.Log;
+
+/**
+ * Probe links by looking up host name and checking response of URL get. Many
+ * links are probed concurrently on a bounded pool of worker threads; probing is
+ * mostly waiting for the network. With a {@link ProbeCache}, links probed
+ * recently (by this or an earlier run) are not probed again. Links on the same
+ * host are probed politely, see {@link HostScheduler}: a few at a time, spaced
+ * apart, and not at all once the host stopped responding. With a budget,
+ * probing stops when the time is up; links most in need of a probe go first.
+ * A prober that only reads the cache leaves probing to a {@link LinkCrawler};
+ * with a {@link ProbeQueue}, probing is shared with worker processes.
+ * 
+ * @author peer
+ *
+ */
+public class LinkProber {
+
+	public static final int DEFAULT_WORKERS = 16;
+	public static final int DEFAULT_PER_HOST = 2;
+	public static final long DEFAULT_HOST_SPACING = 100;
+	public static final int DEFAULT_BREAKER_THRESHOLD = 3;
+	private static final long QUEUE_POLL = 500; // ms
+
+	private final LinkConnector connector;
+	private final int workers;
+	private final ProbeCache cache;
+	private final HostResolver resolver;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private int perHost = DEFAULT_PER_HOST;
+	private long hostSpacing = DEFAULT_HOST_SPACING;
+	private int breakerThreshold = DEFAULT_BREAKER_THRESHOLD;
+	private long budget = 0;
+	private boolean cacheOnly = false;
+	private ProbeQueue queue = null;
+
+	public LinkProber() {
+		this(null);
+	}
+
+	/**
+	 * @param cache or <code>null</code> to probe every link
+	 */
+	public LinkProber(ProbeCache cache) {
+		this(new LinkConnector(), DEFAULT_WORKERS, cache);
+	}
+
+	public LinkProber(LinkConnector connector, int workers) {
+		this(connector, workers, null);
+	}
+
+	public LinkProber(LinkConnector connector, int workers, ProbeCache cache) {
+		this.connector = connector;
+		this.workers = workers;
+		this.cache = cache;
+		this.resolver = new HostResolver(workers);
+	}
+
+	/**
+	 * @param perHost          maximum number of concurrent requests to a host
+	 * @param hostSpacing      minimum time between two requests to a host (ms)
+	 * @param breakerThreshold consecutive timeouts after which the remaining
+	 *                         links on a host are not probed, 0 to probe all
+	 */
+	public void setHostLimits(int perHost, long hostSpacing, int breakerThreshold) {
+		this.perHost = perHost;
+		this.hostSpacing = hostSpacing;
+		this.breakerThreshold = breakerThreshold;
+	}
+
+	/**
+	 * Limit the time spent by {@link #probeAll(Collection)}. Links not probed in
+	 * time are treated as OK (see {@link ProbeResult#deferred()}); they have the
+	 * highest priority in the next run, so all links are covered over a few runs.
+	 * 
+	 * @param budget ms, or 0 for no limit
+	 */
+	public void setBudget(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @return <code>true</code> if the time for probing is limited
+	 */
+	public boolean hasBudget() {
+		return budget > 0;
+	}
+
+	/**
+	 * Never probe, only look up the latest results in the cache (also if
+	 * expired), when links are probed in the background.
+	 */
+	public void setCacheOnly(boolean cacheOnly) {
+		this.cacheOnly = cacheOnly;
+	}
+
+	/**
+	 * @return <code>true</code> if links are never probed, see
+	 *         {@link #setCacheOnly(boolean)}
+	 */
+	public boolean isCacheOnly() {
+		return cacheOnly;
+	}
+
+	/**
+	 * Share the probing with worker processes, see {@link ProbeQueue}.
+	 * 
+	 * @param queue or <code>null</code> to probe in this process only
+	 */
+	public void setQueue(ProbeQueue queue) {
+		this.queue = queue;
+	}
+
+	/**
+	 * Probe all links concurrently, wait until done or the budget is spent.
+	 * 
+	 * @param uris distinct links
+	 * @return result per link
+	 */
+	public Map<String, ProbeResult> probeAll(Collection<String> uris) {
+		return cacheOnly ? lookupAll(uris) : probeAll(uris, true);
+	}
+
+	/**
+	 * Probe links again, also those probed recently.
+	 * 
+	 * @param uris distinct links
+	 * @return result per link
+	 */
+	public Map<String, ProbeResult> refresh(Collection<String> uris) {
+		return probeAll(uris, false);
+	}
+
+	/* links never probed are treated as OK until they are */
+	private Map<String, ProbeResult> lookupAll(Collection<String> uris) {
+		Map<String, ProbeResult> results = new ConcurrentHashMap();
+		int unknown = 0;
+		for (String uri : uris) {
+			ProbeResult latest = cache == null ? null : cache.getLatest(uri);
+			if (latest == null) {
+				latest = ProbeResult.deferred();
+				unknown++;
+			}
+			results.put(uri, latest);
+		}
+		Log.log(String.format("Probe results of %d links read from cache, %d links not probed yet", Integer.valueOf(uris.size() - unknown), Integer.valueOf(unknown)));
+		return results;
+	}
+
+	private Map<String, ProbeResult> probeAll(Collection<String> uris, boolean reuse) {
+		long deadline = budget > 0 ? System.currentTimeMillis() + budget : Long.MAX_VALUE;
+		Map<String, ProbeResult> results = new ConcurrentHashMap();
+		if (uris.isEmpty()) {
+			return results;
+		}
+		List<String> expired = new ArrayList();
+		for (String uri : uris) {
+			ProbeResult cached = cache == null || !reuse ? null : cache.get(uri);
+			if (cached == null) {
+				expired.add(uri);
+			} else {
+				results.put(uri, cached);
+			}
+		}
+		if (expired.isEmpty()) {
+			Log.log(String.format("All %d links probed recently", Integer.valueOf(uris.size())));
+			return results;
+		}
+
+		expired.sort(priority());
+		long start = System.currentTimeMillis();
+		Map<String, ProbeResult> probed = queue != null ? probeQueued(expired, deadline) : probeLocally(expired, deadline, results.size());
+		results.putAll(probed);
+		int deferred = 0;
+		for (String uri : expired) {
+			if (!results.containsKey(uri)) {
+				results.put(uri, ProbeResult.deferred());
+				deferred++;
+			}
+		}
+		Log.log(String.format("Probed %d links in %d ms, latency %s", Integer.valueOf(expired.size() - deferred), Long.valueOf(System.currentTimeMillis() - start), latency));
+		if (deferred > 0) {
+			Log.log(String.format("Probe budget spent, %d links not probed (treated as OK, probed first in the next run)", Integer.valueOf(deferred)));
+		}
+		if (connector.getHedgedRequests() > 0 || connector.getSkippedHedges() > 0) {
+			Log.log(String.format("Hedged %d slow HEAD requests with GET, %d answered by GET, %d not hedged with all hedge threads busy (HEAD latency %s)", 
+					Long.valueOf(connector.getHedgedRequests()), Long.valueOf(connector.getHedgeWins()), Long.valueOf(connector.getSkippedHedges()), connector.getHeadLatency()));
+		}
+		Log.debug(String.format("%d requests, %d disconnected at deadline, at most %d threads waiting for a response, %d redirects", 
+				Long.valueOf(connector.getRequests()), Long.valueOf(connector.getCancelledRequests()), Integer.valueOf(connector.getPeakActiveRequests()), Integer.valueOf(connector.getKnownRedirects())));
+		return results;
+	}
+
+	/* on worker threads of this prober */
+	private Map<String, ProbeResult> probeLocally(List<String> expired, long deadline, int recent) {
+		HostScheduler scheduler = new HostScheduler(perHost, hostSpacing, breakerThreshold);
+		Set<String> hosts = new HashSet();
+		for (String uri : expired) {
+			String host = hostOf(uri);
+			scheduler.add(uri, host);
+			hosts.add(host);
+		}
+		hosts.remove(null);
+		resolver.resolveAll(hosts, deadline);
+		int threads = Math.min(workers, expired.size());
+		Log.log(String.format("Probing %d links on %d hosts, %d in parallel (%d probed recently)", Integer.valueOf(expired.size()), Integer.valueOf(hosts.size()), Integer.valueOf(threads), Integer.valueOf(recent)));
+		ExecutorService pool = Executors.newFixedThreadPool(threads, newThreadFactory());
+		Map<String, ProbeResult> probed = new ConcurrentHashMap();
+		try {
+			AtomicInteger skipped = new AtomicInteger();
+			for (int i = 0; i < threads; i++) {
+				pool.execute(() -> probeScheduled(scheduler, probed, skipped, deadline));
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(Math.max(1, Math.min(10000, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS)) {
+				if (System.currentTimeMillis() >= deadline) {
+					break; // probes still running are not waited for, their results are cached when done
+				}
+				Log.debug(String.format("Probed %d of %d links", Integer.valueOf(probed.size()), Integer.valueOf(expired.size())));
+			}
+			if (skipped.get() > 0) {
+				Log.log(String.format("Skipped %d links on hosts that did not respond", Integer.valueOf(skipped.get())));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FatalException("Interrupted while probing links", e);
+		} finally {
+			pool.shutdownNow();
+		}
+		return probed;
+	}
+
+	/*
+	 * Through the queue: this prober works on the round like any worker, and
+	 * waits for the others (claiming partitions released by workers that died).
+	 */
+	private Map<String, ProbeResult> probeQueued(List<String> expired, long deadline) {
+		File round;
+		try {
+			round = queue.submit(expired);
+		} catch (IOException e) {
+			Log.warn("Failed to queue links, probing here: " + e.getMessage());
+			return probeLocally(expired, deadline, 0);
+		}
+		try {
+			ProbeWorker worker = new ProbeWorker(queue, connector, workers);
+			while (System.currentTimeMillis() < deadline && !queue.isDone(round)) {
+				if (worker.work(round, deadline) == 0) {
+					Thread.sleep(Math.max(1, Math.min(QUEUE_POLL, deadline - System.currentTimeMillis())));
+				}
+			}
+			Map<String, ProbeResult> probed = queue.collect(round);
+			probed.keySet().retainAll(new HashSet(expired));
+			if (cache != null) {
+				for (Entry<String, ProbeResult> each : probed.entrySet()) {
+					if (!each.getValue().isShortCircuited()) { // not probed, as in probeScheduled
+						cache.put(each.getKey(), each.getValue());
+					}
+				}
+			}
+			Log.log(String.format("Collected %d probe results from %s", Integer.valueOf(probed.size()), round));
+			return probed;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FatalException("Interrupted while waiting for probe workers", e);
+		} finally {
+			queue.remove(round);
+		}
+	}
+
+	/* never probed first, then the oldest result, then links that failed most */
+	private Comparator<String> priority() {
+		Comparator<String> byAge = Comparator.comparingLong(uri -> {
+			ProbeResult latest = cache == null ? null : cache.getLatest(uri);
+			return latest == null ? -1 : latest.getTime();
+		});
+		return byAge.thenComparing(Comparator.comparingInt((String uri) -> {
+			LinkHealth health = getHealth(uri);
+			return health == null ? 0 : health.getConsecutiveFailures();
+		}).reversed());
+	}
+
+	private void probeScheduled(HostScheduler scheduler, Map<String, ProbeResult> results, AtomicInteger skipped, long deadline) {
+		try {
+			String uri;
+			while ((uri = scheduler.next(deadline)) != null) {
+				ProbeResult result = probeNow(uri);
+				results.put(uri, result);
+				List<String> shortCircuited = scheduler.done(uri, result);
+				if (!shortCircuited.isEmpty()) {
+					String host = scheduler.getHost(uri);
+					Log.warn(String.format("No response from %s, %d remaining links not probed", host, Integer.valueOf(shortCircuited.size())));
+					ProbeResult breaker = ProbeResult.shortCircuited(host, scheduler.getFailures(uri));
+					for (String link : shortCircuited) {
+						results.put(link, breaker);
+					}
+					skipped.addAndGet(shortCircuited.size());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static String hostOf(String uri) {
+		try {
+			return new URI(uri).getHost();
+		} catch (URISyntaxException e) {
+			return null; // reported when probed
+		}
+	}
+
+	private static ThreadFactory newThreadFactory() {
+		AtomicInteger counter = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "link-probe-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * @return the last outcomes of a link, or <code>null</code> if not known
+	 *         (never probed, or no probe cache)
+	 */
+	public LinkHealth getHealth(String uri) {
+		return cache == null || uri == null ? null : cache.getHealth(uri);
+	}
+
+	/**
+	 * @return latency of the links probed (not of results reused)
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Probe one link in the calling thread, unless probed recently.
+	 * 
+	 * @return the outcome, never <code>null</code>
+	 */
+	public ProbeResult probe(String uri) {
+		ProbeResult cached = cache == null || uri == null ? null : cache.get(uri);
+		return cached != null ? cached : probeNow(uri);
+	}
+
+	private ProbeResult probeNow(String uri) {
+		long start = System.currentTimeMillis();
+		ProbeResult previous = cache == null || uri == null ? null : cache.getLatest(uri);
+		ProbeResult result;
+		try {
+			result = doProbe(uri, previous);
+		} catch (Exception e) {
+			Log.debug(String.format("Unable to probe link: %s [%s]", uri, e));
+			result = new ProbeResult(Outcome.FAILED, 0, e.toString());
+		}
+		result = result.timed(start, System.currentTimeMillis() - start);
+		latency.record(result.getLatency());
+		if (cache != null && uri != null) {
+			cache.put(uri, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Probe one link over the network.
+	 * 
+	 * @param link
+	 * @param previous result of the previous probe (expired), or
+	 *                 <code>null</code>
+	 */
+	protected ProbeResult doProbe(String link, ProbeResult previous) {
+		// parse URI, exit if bad
+		URI uri = null;
+		try {
+			uri = new URI(link);
+		} catch (URISyntaxException e) {
+			return new ProbeResult(Outcome.BAD_URI, 0, e.getMessage());
+		}
+
+		// probe host and URL 
+		if (!probeHost(uri)) {
+			return new ProbeResult(Outcome.UNKNOWN_HOST, 0, null);
+		}
+		if (uri.getScheme().equalsIgnoreCase("http") || uri.getScheme().equalsIgnoreCase("https")) {
+			try {
+				return probeURL(uri.toURL(), previous);
+			} catch (IOException e) {
+				return new ProbeResult(Outcome.UNVERIFIED, 0, e.getMessage());
+			}
+		}
+		return new ProbeResult(Outcome.OK, 0, null);
+	}
+
+	private boolean probeHost(URI uri) {
+		return resolver.isKnown(uri.getHost());
+	}
+
+	/**
+	 * @see "https://developer.mozilla.org/en-US/docs/Web/HTTP/Status"
+	 * @see "https://stackoverflow.com/questions/1378199/how-to-check-if-a-url-exists-or-returns-404-with-java"
+	 */
+	private ProbeResult probeURL(URL url, ProbeResult previous) throws IOException {
+		Log.debug(String.format("Testing URL '%s' ...", url));
+		
+		// revalidate if the link responded before
+		boolean revalidate = previous != null && previous.isSuccess();
+		String etag = revalidate ? previous.getETag() : null;
+		String lastModified = revalidate ? previous.getLastModified() : null;
+		LinkConnector.Response response = connector.request(url, etag, lastModified);
+		
+		int responseCode = response.getResponseCode();
+		String finalUrl = response.getURL().toString();
+		if (response.getRedirectError() != null) {
+			return new ProbeResult(Outcome.UNRESOLVED, responseCode, response.getRedirectError(), finalUrl, 0, 0);
+		}
+		if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			// validators may be left out of a 304
+			etag = response.getETag() != null ? response.getETag() : etag;
+			lastModified = response.getLastModified() != null ? response.getLastModified() : lastModified;
+		} else {
+			etag = response.getETag();
+			lastModified = response.getLastModified();
+		}
+		Outcome outcome = classify(responseCode);
+		if (outcome == Outcome.OK && response.isMoved()) {
+			// report the redirect, the link itself is fine
+			return new ProbeResult(Outcome.MOVED, response.getRedirectCode(), null, finalUrl, etag, lastModified, 0, 0);
+		}
+		return new ProbeResult(outcome, responseCode, null, finalUrl, etag, lastModified, 0, 0);
+	}
+
+	private static Outcome classify(int responseCode) {
+		switch (responseCode) {
+
+		// OK 
+		case HttpURLConnection.HTTP_OK: // 200
+		case HttpURLConnection.HTTP_ACCEPTED: // 202
+		case HttpURLConnection.HTTP_PARTIAL: // 206, answer to a ranged GET
+		case HttpURLConnection.HTTP_MOVED_TEMP: // 302
+		case HttpURLConnection.HTTP_NOT_MODIFIED: // 304
+		case 307:
+		case 416: // range not satisfiable, the page exists but is empty
+			return Outcome.OK;
+
+		// rate limited, says nothing about the link
+		case 429:
+			return Outcome.UNVERIFIED;
+
+		// permanently redirected
+		case HttpURLConnection.HTTP_MOVED_PERM: // 301
+		case HttpURLConnection.HTTP_SEE_OTHER: // 303
+		case 308:
+			return Outcome.MOVED;
+
+		// no response
+		case HttpURLConnection.HTTP_CLIENT_TIMEOUT: // 408
+			return Outcome.TIMEOUT;
+			
+		// Everything else is a failure
+		default:
+			return Outcome.UNRESOLVED;
+		}
+	}
+
+}
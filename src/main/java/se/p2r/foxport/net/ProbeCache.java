@@ -0,0 +1,419 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+import se.p2r.foxport.util.LatencyHistogram;
+import se.p2r.foxport.util.Log;
+
+/**
+ * Probe results that survive between runs, per normalized link. A result is
+ * reused until its time to live has passed; successful probes live longer
+ * than failures, which are more likely to change. With each link the last
+ * outcomes are kept (see {@link LinkHealth}): a link that keeps answering is
+ * probed less and less often, a link that failed recently more often.
+ * <p>
+ * The file is an append-only log: every result is written and flushed as soon
+ * as it is known, so a run that crashes keeps what it has probed. Later lines
+ * replace earlier ones for the same link. The log is compacted (rewritten
+ * with one line per live link) when it has grown to twice that size.
+ * <p>
+ * The latency of each host is kept as well (see {@link HostLatency}), written
+ * when the cache is flushed or closed.
+ * 
+ * @author peer
+ *
+ */
+public class ProbeCache implements Closeable {
+
+	private static final String HEADER = "# p2r-foxport probe cache 1";
+	private static final String SEPARATOR = "\t";
+	private static final int FIELDS = 10;
+	private static final int MAX_BACKOFF = 4;
+	private static final int COMPACT_MIN_LINES = 1000;
+	private static final String HOST = "H";
+	private static final int HOST_FIELDS = 5;
+
+	private final File file;
+	private final long successTTL;
+	private final long errorTTL;
+	private final Map<String, ProbeResult> entries = new ConcurrentHashMap();
+	private final Map<String, LinkHealth> health = new ConcurrentHashMap();
+	private final Map<String, HostLatency> hosts = new ConcurrentHashMap();
+
+	private Writer log; // null if not writable; guarded by this
+	private int lines; // lines in log; guarded by this
+
+	/**
+	 * Load the cache, create the file if missing.
+	 * 
+	 * @param file
+	 * @param successTTL time to live (ms) for successful probes, doubled for
+	 *                   every success in a row (up to 4 times as long)
+	 * @param errorTTL   time to live (ms) for failed probes and timeouts
+	 */
+	public ProbeCache(File file, long successTTL, long errorTTL) {
+		this.file = file;
+		this.successTTL = successTTL;
+		this.errorTTL = errorTTL;
+		boolean clean = load();
+		synchronized (this) {
+			if (!clean || needsCompaction()) {
+				compact();
+			} else {
+				openLog();
+			}
+		}
+	}
+
+	/* read only */
+	private ProbeCache(File file) {
+		this.file = file;
+		this.successTTL = 0;
+		this.errorTTL = 0;
+		load();
+	}
+
+	/**
+	 * Read the latest results in a probe cache file without changing it, for
+	 * example one still written by a worker (see {@link ProbeQueue}).
+	 * 
+	 * @return result per link, empty if the file is missing or unreadable
+	 */
+	static Map<String, ProbeResult> read(File file) {
+		return new ProbeCache(file).entries;
+	}
+
+	/**
+	 * @return a result that has not expired, or <code>null</code>
+	 */
+	public ProbeResult get(String target) {
+		ProbeResult result = entries.get(target);
+		return result != null && isFresh(result, health.get(target), System.currentTimeMillis()) ? result : null;
+	}
+
+	/**
+	 * @return the last outcomes of the link, or <code>null</code> if never
+	 *         probed
+	 */
+	public LinkHealth getHealth(String target) {
+		return health.get(target);
+	}
+
+	/**
+	 * @return the latest result, also if expired, or <code>null</code>
+	 */
+	public ProbeResult getLatest(String target) {
+		return entries.get(target);
+	}
+
+	/**
+	 * @return time (ms) when the latest result expires, or 0 if never probed
+	 */
+	public long getExpires(String target) {
+		ProbeResult result = entries.get(target);
+		return result == null ? 0 : result.getTime() + ttl(result, health.get(target));
+	}
+
+	/**
+	 * Record a result and write it to the log.
+	 */
+	public synchronized void put(String target, ProbeResult result) {
+		entries.put(target, result);
+		LinkHealth previous = health.get(target);
+		LinkHealth latest = previous == null ? LinkHealth.of(result.getOutcome()) : previous.with(result.getOutcome());
+		health.put(target, latest);
+		if (log != null) {
+			try {
+				log.write(format(target, result, latest));
+				log.flush();
+				lines++;
+			} catch (IOException e) {
+				disable(e);
+			}
+		}
+		if (needsCompaction()) {
+			compact();
+		}
+	}
+
+	/**
+	 * @param host lower case host name
+	 * @return latency of the host, empty if not seen before
+	 */
+	public HostLatency getHostLatency(String host) {
+		return hosts.computeIfAbsent(host, h -> new HostLatency());
+	}
+
+	/**
+	 * @return the links with a result, expired or not
+	 */
+	public Set<String> getLinks() {
+		return new HashSet(entries.keySet());
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Write host latency recorded since loaded (or last written), keep the log
+	 * open.
+	 */
+	public synchronized void flush() {
+		if (log != null) {
+			try {
+				for (Entry<String, HostLatency> each : hosts.entrySet()) {
+					if (each.getValue().isChanged()) {
+						log.write(format(each.getKey(), each.getValue()));
+						each.getValue().saved();
+						lines++;
+					}
+				}
+				log.flush();
+			} catch (IOException e) {
+				Log.warn("Failed to write host latency to probe cache " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write host latency recorded since loaded, and close the log.
+	 */
+	@Override
+	public synchronized void close() {
+		flush();
+		closeLog();
+	}
+
+	private void closeLog() {
+		if (log != null) {
+			try {
+				log.close();
+			} catch (IOException e) {
+				Log.warn("Failed to close probe cache " + file + ": " + e.getMessage());
+			}
+			log = null;
+		}
+	}
+
+	private boolean isFresh(ProbeResult result, LinkHealth history, long now) {
+		return now - result.getTime() < ttl(result, history);
+	}
+
+	/*
+	 * The time to live of a success doubles with every success in a row: from
+	 * the success TTL for a link that has not failed (as far as we know), up to
+	 * MAX_BACKOFF times that; from the error TTL for a link that failed
+	 * recently, up to the success TTL.
+	 */
+	private long ttl(ProbeResult result, LinkHealth history) {
+		if (!result.isSuccess()) {
+			return errorTTL;
+		}
+		int successes = history == null ? 1 : Math.max(1, history.getConsecutiveSuccesses());
+		boolean flapping = history != null && history.hasFailed();
+		long base = flapping ? errorTTL : successTTL;
+		long max = flapping ? successTTL : MAX_BACKOFF * successTTL;
+		return Math.min(max, base << Math.min(successes - 1, 16));
+	}
+
+	private boolean needsCompaction() {
+		return lines > COMPACT_MIN_LINES && lines > 2 * (entries.size() + hosts.size());
+	}
+
+	/*
+	 * @return false if the file is damaged (typically a line cut short by a
+	 * crash) and should be rewritten
+	 */
+	private boolean load() {
+		if (!file.isFile()) {
+			return true;
+		}
+		boolean clean = true;
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			if (!HEADER.equals(in.readLine())) {
+				Log.warn("Ignoring probe cache in unknown format: " + file);
+				return false;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines++;
+				if (!parse(line)) {
+					Log.debug("Skipping damaged probe cache entry: " + line);
+					clean = false;
+				}
+			}
+		} catch (IOException e) {
+			Log.warn("Ignoring probe cache " + file + ": " + e.getMessage());
+			entries.clear();
+			return false;
+		}
+		Log.debug(String.format("Loaded %d probe results from %s", Integer.valueOf(entries.size()), file));
+		return clean;
+	}
+
+	private boolean parse(String line) {
+		String[] fields = line.split(SEPARATOR, -1);
+		if (fields[0].equals(HOST)) {
+			return parseHost(fields);
+		}
+		if (fields.length != FIELDS && fields.length != FIELDS - 1) {
+			return false; // history was added as the last field
+		}
+		try {
+			long time = Long.parseLong(fields[0]);
+			long latency = Long.parseLong(fields[1]);
+			Outcome outcome = Outcome.valueOf(fields[2]);
+			int responseCode = Integer.parseInt(fields[3]);
+			String target = fields[4];
+			String finalUrl = nullIfEmpty(fields[5]);
+			String etag = nullIfEmpty(fields[6]);
+			String lastModified = nullIfEmpty(fields[7]);
+			String detail = nullIfEmpty(fields[8]);
+			LinkHealth history = fields.length == FIELDS && !fields[9].isEmpty() ? LinkHealth.decode(fields[9]) : LinkHealth.of(outcome);
+			entries.put(target, new ProbeResult(outcome, responseCode, detail, finalUrl, etag, lastModified, time, latency));
+			health.put(target, history);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private boolean parseHost(String[] fields) {
+		if (fields.length != HOST_FIELDS) {
+			return false;
+		}
+		try {
+			long updated = Long.parseLong(fields[2]);
+			hosts.put(fields[1], new HostLatency(LatencyHistogram.decode(fields[3]), LatencyHistogram.decode(fields[4]), updated));
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static String format(String host, HostLatency latency) {
+		return new StringBuilder()
+				.append(HOST).append(SEPARATOR)
+				.append(clean(host)).append(SEPARATOR)
+				.append(latency.getUpdated()).append(SEPARATOR)
+				.append(latency.getConnect().encode()).append(SEPARATOR)
+				.append(latency.getFirstByte().encode())
+				.append('\n')
+				.toString();
+	}
+
+	private static String format(String target, ProbeResult result, LinkHealth history) {
+		return new StringBuilder()
+				.append(result.getTime()).append(SEPARATOR)
+				.append(result.getLatency()).append(SEPARATOR)
+				.append(result.getOutcome()).append(SEPARATOR)
+				.append(result.getResponseCode()).append(SEPARATOR)
+				.append(clean(target)).append(SEPARATOR)
+				.append(clean(result.getFinalUrl())).append(SEPARATOR)
+				.append(clean(result.getETag())).append(SEPARATOR)
+				.append(clean(result.getLastModified())).append(SEPARATOR)
+				.append(clean(result.getDetail())).append(SEPARATOR)
+				.append(history == null ? "" : history.encode())
+				.append('\n')
+				.toString();
+	}
+
+	/* keep one entry on one line */
+	private static String clean(String s) {
+		return s == null ? "" : s.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+	}
+
+	private static String nullIfEmpty(String s) {
+		return s.isEmpty() ? null : s;
+	}
+
+	/*
+	 * Rewrite the log with the latest result per link, dropping results too old
+	 * to be of any use. Written to a temporary file that replaces the log, so a
+	 * crash leaves either the old or the new log.
+	 */
+	private void compact() {
+		closeLog();
+		long now = System.currentTimeMillis();
+		long maxAge = Math.max(MAX_BACKOFF * successTTL, errorTTL);
+		entries.values().removeIf(result -> now - result.getTime() >= maxAge);
+		health.keySet().retainAll(entries.keySet());
+		hosts.values().removeIf(latency -> now - latency.getUpdated() >= maxAge);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+			out.write(HEADER);
+			out.write('\n');
+			for (Entry<String, ProbeResult> each : entries.entrySet()) {
+				out.write(format(each.getKey(), each.getValue(), health.get(each.getKey())));
+			}
+			for (Entry<String, HostLatency> each : hosts.entrySet()) {
+				out.write(format(each.getKey(), each.getValue()));
+				each.getValue().saved();
+			}
+		} catch (IOException e) {
+			disable(e);
+			return;
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			disable(e);
+			return;
+		}
+		lines = entries.size() + hosts.size();
+		Log.debug(String.format("Compacted probe cache %s: %d entries", file, Integer.valueOf(lines)));
+		openLog();
+	}
+
+	private void openLog() {
+		try {
+			boolean exists = file.isFile();
+			log = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			if (!exists) {
+				log.write(HEADER);
+				log.write('\n');
+				log.flush();
+			}
+		} catch (IOException e) {
+			disable(e);
+		}
+	}
+
+	/* a cache that cannot be written still works for this run */
+	private void disable(IOException e) {
+		Log.warn("Probe results will not be kept, failed to write " + file + ": " + e.getMessage());
+		closeLog();
+	}
+
+}
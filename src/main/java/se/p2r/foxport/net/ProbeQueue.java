@@ -0,0 +1,386 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.p2r.foxport.util.Log;
+
+/**
+ * Links to probe, queued in a directory shared by a coordinator and any number
+ * of worker processes (see {@link ProbeWorker}): on one machine, or on several
+ * when the directory is on shared storage (that supports file locks).
+ * <p>
+ * The coordinator submits the links of a run as a round, partitioned by host:
+ * all links on a host end up in the same partition, so they are probed by one
+ * worker and the limits per host still hold. A worker claims a partition by
+ * locking its file, and marks it done when probed. If the worker dies the lock
+ * is released, and another worker claims the partition. Each worker appends
+ * its results to a file of its own, in the format of a {@link ProbeCache}; the
+ * coordinator collects them and removes the round. Links not probed because
+ * their host stopped responding are not cached, they are listed in the marker
+ * of the partition done.
+ * <p>
+ * Layout: <code>round-&lt;n&gt;/p&lt;n&gt;.tasks</code> (a link per line),
+ * <code>round-&lt;n&gt;/p&lt;n&gt;.done</code> (links short circuited: link,
+ * time and detail per line) and
+ * <code>round-&lt;n&gt;/&lt;worker&gt;.probes</code>.
+ * 
+ * @author peer
+ *
+ */
+public class ProbeQueue {
+
+	public static final int DEFAULT_PARTITIONS = 64;
+
+	private static final String ROUND = "round-";
+	private static final String TASKS = ".tasks";
+	private static final String DONE = ".done";
+	static final String RESULTS = ".probes";
+	private static final String SEPARATOR = "\t";
+
+	/* partitions claimed in this JVM, a second channel on a locked file could release the lock */
+	private static final Set<String> CLAIMED = Collections.newSetFromMap(new ConcurrentHashMap());
+
+	private final File dir;
+	private final int partitions;
+
+	public ProbeQueue(File dir) {
+		this(dir, DEFAULT_PARTITIONS);
+	}
+
+	/**
+	 * @param dir        queue directory, created if missing
+	 * @param partitions number of partitions a round is split into (at most)
+	 */
+	public ProbeQueue(File dir, int partitions) {
+		this.dir = dir;
+		this.partitions = partitions;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	/**
+	 * Queue links as a new round. Partitions are written in full before they
+	 * can be claimed.
+	 * 
+	 * @param links distinct links
+	 * @return the round
+	 */
+	public File submit(Collection<String> links) throws IOException {
+		Map<Integer, List<String>> parts = new TreeMap();
+		for (String link : links) {
+			parts.computeIfAbsent(Integer.valueOf(partition(link)), p -> new ArrayList()).add(link);
+		}
+		File round = newRound();
+		for (Entry<Integer, List<String>> each : parts.entrySet()) {
+			File tasks = new File(round, "p" + each.getKey() + TASKS);
+			File tmp = new File(round, "p" + each.getKey() + ".tmp");
+			try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+				for (String link : each.getValue()) {
+					out.write(link);
+					out.write('\n');
+				}
+			}
+			Files.move(tmp.toPath(), tasks.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		Log.log(String.format("Queued %d links in %d partitions: %s", Integer.valueOf(links.size()), Integer.valueOf(parts.size()), round));
+		return round;
+	}
+
+	private File newRound() throws IOException {
+		Files.createDirectories(dir.toPath());
+		for (long n = System.currentTimeMillis();; n++) {
+			File round = new File(dir, ROUND + n);
+			if (round.mkdir()) {
+				return round;
+			}
+			if (!dir.isDirectory()) {
+				throw new IOException("Cannot create probe queue round in " + dir);
+			}
+		}
+	}
+
+	int partition(String link) {
+		String host = LinkProber.hostOf(link);
+		return host == null ? 0 : (host.toLowerCase().hashCode() & Integer.MAX_VALUE) % partitions;
+	}
+
+	/**
+	 * @return rounds not yet removed, oldest first
+	 */
+	public List<File> getRounds() {
+		File[] rounds = dir.listFiles(file -> file.isDirectory() && file.getName().startsWith(ROUND));
+		if (rounds == null) {
+			return Collections.emptyList();
+		}
+		List<File> sorted = new ArrayList(Arrays.asList(rounds));
+		sorted.sort((a, b) -> Long.compare(roundNumber(a), roundNumber(b)));
+		return sorted;
+	}
+
+	private static long roundNumber(File round) {
+		try {
+			return Long.parseLong(round.getName().substring(ROUND.length()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Claim a partition of a round that is not done, in random order so
+	 * workers rarely compete for the same one.
+	 * 
+	 * @return the partition, locked, or <code>null</code> if every partition
+	 *         is done or claimed (or the round is removed)
+	 */
+	public Partition claim(File round) throws IOException {
+		List<File> tasks = tasks(round);
+		Collections.shuffle(tasks);
+		for (File file : tasks) {
+			if (!isProbed(file)) {
+				Partition partition = Partition.claim(file);
+				if (partition != null) {
+					return partition;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return <code>true</code> if every partition of the round is done (or the
+	 *         round is removed)
+	 */
+	public boolean isDone(File round) {
+		for (File file : tasks(round)) {
+			if (!isProbed(file)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<File> tasks(File round) {
+		File[] tasks = round.listFiles((d, name) -> name.endsWith(TASKS));
+		return tasks == null ? new ArrayList() : new ArrayList(Arrays.asList(tasks));
+	}
+
+	private static boolean isProbed(File tasks) {
+		return doneFile(tasks).exists();
+	}
+
+	private static File doneFile(File tasks) {
+		String name = tasks.getName();
+		return new File(tasks.getParentFile(), name.substring(0, name.length() - TASKS.length()) + DONE);
+	}
+
+	/**
+	 * Read the results of all workers so far. A link probed by several workers
+	 * (a partition claimed again) gets the latest result; links short
+	 * circuited get a result only if not probed.
+	 * 
+	 * @return result per link
+	 */
+	public Map<String, ProbeResult> collect(File round) {
+		Map<String, ProbeResult> results = new HashMap();
+		File[] files = round.listFiles((d, name) -> name.endsWith(RESULTS));
+		if (files == null) {
+			return results;
+		}
+		for (File file : files) {
+			for (Entry<String, ProbeResult> each : ProbeCache.read(file).entrySet()) {
+				results.merge(each.getKey(), each.getValue(), (a, b) -> a.getTime() >= b.getTime() ? a : b);
+			}
+		}
+		for (File done : round.listFiles((d, name) -> name.endsWith(DONE))) {
+			try {
+				for (String line : Files.readAllLines(done.toPath(), StandardCharsets.UTF_8)) {
+					String[] fields = line.split(SEPARATOR, 3);
+					if (fields.length == 3) {
+						results.putIfAbsent(fields[0], ProbeResult.shortCircuited(fields[2], Long.parseLong(fields[1])));
+					}
+				}
+			} catch (IOException | NumberFormatException e) {
+				Log.warn("Ignoring links not probed in " + done + ": " + e.getMessage());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Remove a round with its tasks and results. Workers still probing it will
+	 * fail to write their results, and move on.
+	 */
+	public void remove(File round) {
+		File[] files = round.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!file.delete()) {
+					Log.warn("Failed to remove " + file);
+				}
+			}
+		}
+		if (!round.delete()) {
+			Log.warn("Failed to remove probe queue round " + round);
+		}
+	}
+
+	/**
+	 * A partition of a round, claimed by this worker until closed.
+	 */
+	public static class Partition implements Closeable {
+
+		private final File file;
+		private final FileChannel channel;
+		private final FileLock lock;
+		private final List<String> links;
+
+		private Partition(File file, FileChannel channel, FileLock lock, List<String> links) {
+			this.file = file;
+			this.channel = channel;
+			this.lock = lock;
+			this.links = links;
+		}
+
+		/* null if claimed by another worker, done, or removed */
+		private static Partition claim(File file) throws IOException {
+			String key = file.getAbsolutePath();
+			if (!CLAIMED.add(key)) {
+				return null;
+			}
+			FileChannel channel = null;
+			try {
+				channel = FileChannel.open(file.toPath(), READ, WRITE);
+				FileLock lock = channel.tryLock();
+				if (lock != null && !isProbed(file)) {
+					return new Partition(file, channel, lock, read(channel));
+				}
+			} catch (NoSuchFileException | OverlappingFileLockException e) {
+				// removed, or claimed by another queue in this JVM
+			} catch (IOException | RuntimeException e) {
+				close(channel);
+				CLAIMED.remove(key);
+				throw e;
+			}
+			close(channel);
+			CLAIMED.remove(key);
+			return null;
+		}
+
+		/* through the locked channel, see CLAIMED */
+		private static List<String> read(FileChannel channel) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read all
+			}
+			List<String> links = new ArrayList();
+			for (String line : new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).split("\n")) {
+				if (!line.isEmpty()) {
+					links.add(line);
+				}
+			}
+			return links;
+		}
+
+		private static void close(FileChannel channel) {
+			if (channel != null) {
+				try {
+					channel.close(); // releases the lock
+				} catch (IOException e) {
+					Log.warn("Failed to close probe queue partition: " + e.getMessage());
+				}
+			}
+		}
+
+		public File getRound() {
+			return file.getParentFile();
+		}
+
+		public List<String> getLinks() {
+			return links;
+		}
+
+		/**
+		 * Mark the partition as probed, and release it.
+		 * 
+		 * @param results of the links, those short circuited are kept with the
+		 *                mark (they are not cached)
+		 */
+		public void done(Map<String, ProbeResult> results) throws IOException {
+			File done = doneFile(file);
+			File tmp = new File(done.getPath() + ".tmp");
+			try {
+				try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+					for (Entry<String, ProbeResult> each : results.entrySet()) {
+						ProbeResult result = each.getValue();
+						if (result.isShortCircuited()) {
+							out.write(each.getKey() + SEPARATOR + result.getTime() + SEPARATOR + result.getDetail().replace('\n', ' ') + '\n');
+						}
+					}
+				}
+				// replaces the mark if claimed again after a lost lock, and probed twice
+				Files.move(tmp.toPath(), done.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Release the partition, for another worker to claim unless done.
+		 */
+		@Override
+		public void close() {
+			if (channel.isOpen()) {
+				close(channel);
+				CLAIMED.remove(file.getAbsolutePath());
+			}
+		}
+
+		@Override
+		public String toString() {
+			return file.toString();
+		}
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+/**
+ * Outcome of probing one link. Independent of the bookmarks that refer to the
+ * link, so the same result may be reported for several bookmarks.
+ * 
+ * @author peer
+ * @see LinkProber
+ */
+public final class ProbeResult {
+
+	public enum Outcome {
+		/** Host and URL responded. */
+		OK,
+		/** Permanently redirected. */
+		MOVED,
+		/** Not a valid URI. */
+		BAD_URI,
+		/** Host name could not be resolved. */
+		UNKNOWN_HOST,
+		/** No response within timeout. */
+		TIMEOUT,
+		/** Responded with an error. */
+		UNRESOLVED,
+		/** Could not connect; the link is kept. */
+		UNVERIFIED,
+		/** Probe failed unexpectedly. */
+		FAILED
+	}
+
+	private final Outcome outcome;
+	private final int responseCode;
+	private final String detail;
+	private final String finalUrl;
+	private final String etag;
+	private final String lastModified;
+	private final long time;
+	private final long latency;
+	private final Source source;
+
+	/* where a result comes from, if not from a probe */
+	private enum Source {
+		PROBED, SHORT_CIRCUITED, DEFERRED
+	}
+
+	public ProbeResult(Outcome outcome, int responseCode, String detail) {
+		this(outcome, responseCode, detail, null, 0, 0);
+	}
+
+	/**
+	 * @param finalUrl URL after redirects, or <code>null</code> if not known
+	 * @param time     when probed (ms since epoch)
+	 * @param latency  time it took to probe (ms)
+	 */
+	public ProbeResult(Outcome outcome, int responseCode, String detail, String finalUrl, long time, long latency) {
+		this(outcome, responseCode, detail, finalUrl, null, null, time, latency);
+	}
+
+	/**
+	 * @param etag         <code>ETag</code> of the response, or <code>null</code>
+	 * @param lastModified <code>Last-Modified</code> of the response, or
+	 *                     <code>null</code>
+	 */
+	public ProbeResult(Outcome outcome, int responseCode, String detail, String finalUrl, String etag, String lastModified, long time, long latency) {
+		this(outcome, responseCode, detail, finalUrl, etag, lastModified, time, latency, Source.PROBED);
+	}
+
+	private ProbeResult(Outcome outcome, int responseCode, String detail, String finalUrl, String etag, String lastModified, long time, long latency, Source source) {
+		this.outcome = outcome;
+		this.responseCode = responseCode;
+		this.detail = detail;
+		this.finalUrl = finalUrl;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.time = time;
+		this.latency = latency;
+		this.source = source;
+	}
+
+	/**
+	 * Result of a link that was not probed, because its host did not respond
+	 * to the previous probes.
+	 * 
+	 * @param host     the host that did not respond
+	 * @param failures number of consecutive timeouts on the host
+	 */
+	public static ProbeResult shortCircuited(String host, int failures) {
+		String detail = String.format("not probed, %d consecutive timeouts on %s", Integer.valueOf(failures), host);
+		return shortCircuited(detail, System.currentTimeMillis());
+	}
+
+	/* as recorded by a worker, see ProbeQueue */
+	static ProbeResult shortCircuited(String detail, long time) {
+		return new ProbeResult(Outcome.TIMEOUT, 0, detail, null, null, null, time, 0, Source.SHORT_CIRCUITED);
+	}
+
+	/**
+	 * Result of a link that was not probed, because the time for probing ran
+	 * out. Treated as OK for this run.
+	 */
+	public static ProbeResult deferred() {
+		return new ProbeResult(Outcome.OK, 0, "not probed, probe budget spent", null, null, null, System.currentTimeMillis(), 0, Source.DEFERRED);
+	}
+
+	/**
+	 * @return a copy stamped with the time and latency of the probe
+	 */
+	public ProbeResult timed(long probeTime, long probeLatency) {
+		return new ProbeResult(outcome, responseCode, detail, finalUrl, etag, lastModified, probeTime, probeLatency, source);
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return HTTP response code, or 0 if no HTTP request was made
+	 */
+	public int getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * @return error message, or <code>null</code>
+	 */
+	public String getDetail() {
+		return detail;
+	}
+
+	/**
+	 * @return URL after redirects, or <code>null</code> if not known
+	 */
+	public String getFinalUrl() {
+		return finalUrl;
+	}
+
+	/**
+	 * @return validator for revalidating the link, or <code>null</code>
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return validator for revalidating the link, or <code>null</code>
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return when probed (ms since epoch), or 0 if not known
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return time it took to probe (ms)
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * @return <code>true</code> if the server gave a definitive, positive
+	 *         answer (possibly a permanent redirect)
+	 */
+	public boolean isSuccess() {
+		return outcome == Outcome.OK || outcome == Outcome.MOVED;
+	}
+
+	/**
+	 * @return <code>true</code> if the link was not probed but given the
+	 *         outcome of other links on its host (not kept between runs)
+	 */
+	public boolean isShortCircuited() {
+		return source == Source.SHORT_CIRCUITED;
+	}
+
+	/**
+	 * @return <code>true</code> if the link was not probed for lack of time
+	 *         (not kept between runs, so probed first in the next run)
+	 */
+	public boolean isDeferred() {
+		return source == Source.DEFERRED;
+	}
+
+	@Override
+	public String toString() {
+		return outcome + (responseCode == 0 ? "" : " (" + responseCode + ")") + (detail == null ? "" : " [" + detail + "]");
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.p2r.foxport.net.ProbeQueue.Partition;
+import se.p2r.foxport.util.Log;
+
+/**
+ * Probe links queued by a coordinator (see {@link ProbeQueue}): claim a
+ * partition, probe its links and write the results to a file of this worker in
+ * the round, until no partition is left to claim. Runs in a worker process, and
+ * in the coordinator.
+ * 
+ * @author peer
+ *
+ */
+public class ProbeWorker {
+
+	private static final long POLL = 500; // ms
+	private static final long RESULT_TTL = 24 * 60 * 60 * 1000L; // results are collected long before
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final ProbeQueue queue;
+	private final LinkConnector connector;
+	private final int workers;
+	private final String id;
+
+	/**
+	 * @param workers number of links probed concurrently
+	 */
+	public ProbeWorker(ProbeQueue queue, LinkConnector connector, int workers) {
+		this.queue = queue;
+		this.connector = connector;
+		this.workers = workers;
+		this.id = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9.@-]", "_") + "-" + COUNTER.incrementAndGet();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Work on all rounds of the queue, until there has been nothing to claim for
+	 * a while.
+	 * 
+	 * @param idle time (ms) to wait for new rounds
+	 * @return number of links probed
+	 */
+	public int run(long idle) throws InterruptedException {
+		Log.log(String.format("Probe worker %s waiting for links in %s", id, queue.getDirectory()));
+		int probed = 0;
+		long until = System.currentTimeMillis() + idle;
+		while (System.currentTimeMillis() < until) {
+			int links = 0;
+			for (File round : queue.getRounds()) {
+				links += work(round, Long.MAX_VALUE);
+			}
+			if (links > 0) {
+				probed += links;
+				until = System.currentTimeMillis() + idle;
+			} else {
+				Thread.sleep(POLL);
+			}
+		}
+		Log.log(String.format("Probe worker %s probed %d links, no more queued", id, Integer.valueOf(probed)));
+		return probed;
+	}
+
+	/**
+	 * Probe partitions of a round until none is left to claim, or the deadline.
+	 * A partition not probed in full is released, not done.
+	 * 
+	 * @return number of links probed
+	 */
+	public int work(File round, long deadline) {
+		int probed = 0;
+		ProbeCache results = null;
+		LinkProber prober = null;
+		try {
+			Partition partition;
+			while (System.currentTimeMillis() < deadline && (partition = queue.claim(round)) != null) {
+				try {
+					if (results == null) {
+						results = new ProbeCache(new File(round, id + ProbeQueue.RESULTS), RESULT_TTL, RESULT_TTL);
+						prober = new LinkProber(connector, workers, results);
+					}
+					if (deadline != Long.MAX_VALUE) {
+						prober.setBudget(Math.max(1, deadline - System.currentTimeMillis()));
+					}
+					Log.debug(String.format("Probe worker %s claimed %s, %d links", id, partition, Integer.valueOf(partition.getLinks().size())));
+					Map<String, ProbeResult> probe = prober.refresh(partition.getLinks());
+					long deferred = probe.values().stream().filter(ProbeResult::isDeferred).count();
+					if (deferred == 0) {
+						partition.done(probe);
+					}
+					probed += probe.size() - deferred;
+				} finally {
+					partition.close();
+				}
+			}
+		} catch (IOException e) {
+			Log.warn(String.format("Probe worker %s failed on %s: %s", id, round, e.getMessage()));
+		} finally {
+			if (results != null) {
+				results.close();
+			}
+		}
+		return probed;
+	}
+
+}
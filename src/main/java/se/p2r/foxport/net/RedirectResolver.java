@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import se.p2r.foxport.util.UrlNormalizer;
+
+/**
+ * Follows redirects one hop at a time, at most {@link #MAX_HOPS} hops, and
+ * stops at a URL already seen in the chain. Redirects are remembered (for the
+ * lifetime of the resolver, one run), so a chain shared by several links, such
+ * as http to https on the same site, costs one round trip per hop once.
+ * Thread safe.
+ * 
+ * @author peer
+ *
+ */
+public class RedirectResolver {
+
+	public static final int MAX_HOPS = 10;
+
+	private final LinkConnector connector;
+	private final Map<String, LinkConnector.Response> hops = new ConcurrentHashMap();
+
+	RedirectResolver(LinkConnector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * @param url
+	 * @param etag         validator sent with every request, or <code>null</code>
+	 * @param lastModified validator sent with every request, or <code>null</code>
+	 * @return response at the end of the chain
+	 * @throws IOException
+	 */
+	public LinkConnector.Response resolve(URL url, String etag, String lastModified) throws IOException {
+		Set<String> seen = new HashSet();
+		seen.add(UrlNormalizer.normalize(url.toString()));
+		boolean permanent = true;
+		int firstCode = 0;
+		URL current = url;
+		for (int hop = 0; ; hop++) {
+			String key = UrlNormalizer.normalize(current.toString());
+			LinkConnector.Response response = hops.get(key);
+			if (response == null) {
+				response = connector.fetch(current, etag, lastModified);
+				if (response.getLocation() == null) {
+					return response.redirected(hop, firstCode, permanent && hop > 0 && !sameExceptScheme(url, current), null);
+				}
+				hops.put(key, response);
+			}
+
+			int code = response.getResponseCode();
+			firstCode = hop == 0 ? code : firstCode;
+			permanent &= isPermanent(code);
+			URL next = response.getLocation();
+			if (hop >= MAX_HOPS) { // this is redirect MAX_HOPS + 1
+				return response.redirected(hop + 1, firstCode, false, String.format("more than %d redirects", Integer.valueOf(MAX_HOPS)));
+			}
+			if (!seen.add(UrlNormalizer.normalize(next.toString()))) {
+				return response.redirected(hop + 1, firstCode, false, "redirect loop at " + next);
+			}
+			current = next;
+		}
+	}
+
+	/**
+	 * @return number of redirects remembered
+	 */
+	public int size() {
+		return hops.size();
+	}
+
+	private static boolean isPermanent(int code) {
+		return code == HttpURLConnection.HTTP_MOVED_PERM || code == HttpURLConnection.HTTP_SEE_OTHER || code == 308;
+	}
+
+	/* a move from http to https is not worth reporting */
+	private static boolean sameExceptScheme(URL u1, URL u2) {
+		return stripScheme(u1).equalsIgnoreCase(stripScheme(u2));
+	}
+
+	private static String stripScheme(URL url) {
+		String s = url.toString();
+		return s.substring(s.indexOf(':') + 1).replaceFirst("//([^/:]*):(80|443)/", "//$1/");
+	}
+
+}
@@ -0,0 +1,328 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.compact.CompactBookmarkTree;
+import se.p2r.foxport.util.Utils;
+
+/**
+ * <p>
+ * Binary snapshot of a parsed bookmark tree, keyed by the fingerprint (path,
+ * size, last modified time and SHA-256 of the contents) of the bookmarks file it
+ * was parsed from.
+ * </p>
+ * <p>
+ * Layout (integers marked 'varint' are unsigned LEB128):
+ * 
+ * <pre>
+ * magic "P2RS", version byte
+ * fingerprint: path (varint length + UTF-8), size (long), last modified (long), hash (varint length + bytes)
+ * string table: count (varint), strings (varint length + UTF-8); index 0 is reserved for null
+ * node count (varint), nodes in preorder:
+ *   kind (byte), child count (varint), name, title, uri, description, export id (varint string indexes)
+ * </pre>
+ * 
+ * The snapshot is read into a heap buffer, and from there into a
+ * {@link CompactBookmarkTree}. Neither the snapshot nor the bookmarks file is
+ * memory mapped: on Windows a mapped file cannot be replaced (by a new snapshot,
+ * or by the browser saving bookmarks) until the mapping is garbage collected.
+ * </p>
+ * 
+ * @author peer
+ *
+ */
+public class SnapshotFile {
+
+	private static final byte[] MAGIC = "P2RS".getBytes(StandardCharsets.US_ASCII);
+	private static final int VERSION = 1;
+
+	private final File file;
+
+	public SnapshotFile(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Read the snapshot, if it was taken from the current contents of the supplied
+	 * source file.
+	 * 
+	 * @param source the bookmarks file
+	 * @return root bookmark, or <code>null</code> if no valid snapshot exists
+	 * @throws IOException if the snapshot exists but cannot be read
+	 */
+	public Bookmark read(File source) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		try {
+			if (!readHeader(buffer, source)) {
+				return null;
+			}
+			String[] strings = readStrings(buffer);
+			int count = readVarint(buffer);
+			if (count == 0) {
+				return null;
+			}
+			CompactBookmarkTree.Builder builder = new CompactBookmarkTree.Builder();
+			readNode(buffer, strings, builder, -1);
+			return builder.build().getRoot();
+		} catch (RuntimeException e) { // BufferUnderflowException, IndexOutOfBounds etc
+			throw new IOException("Corrupt snapshot: " + file, e);
+		}
+	}
+
+	/**
+	 * Write a snapshot of the supplied tree, replacing any previous snapshot.
+	 * 
+	 * @param source the bookmarks file the tree was parsed from, as it is now
+	 * @param root
+	 * @throws IOException
+	 */
+	public void write(File source, Bookmark root) throws IOException {
+		write(Fingerprint.of(source), root);
+	}
+
+	/**
+	 * Write a snapshot of the supplied tree, replacing any previous snapshot.
+	 * 
+	 * @param source fingerprint of the bookmarks file, taken before the tree
+	 *               was parsed: if the file changed while parsing, the snapshot
+	 *               is stale from the start
+	 * @param root
+	 * @throws IOException
+	 */
+	public void write(Fingerprint source, Bookmark root) throws IOException {
+		// collect strings and nodes in preorder
+		Map<String, Integer> strings = new LinkedHashMap();
+		List<Bookmark> nodes = new ArrayList();
+		collect(root, strings, nodes);
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			// header
+			out.write(MAGIC);
+			out.writeByte(VERSION);
+			writeString(out, source.path);
+			out.writeLong(source.size);
+			out.writeLong(source.lastModified);
+			writeVarint(out, source.hash.length);
+			out.write(source.hash);
+
+			// string table
+			writeVarint(out, strings.size());
+			for (String s : strings.keySet()) {
+				writeString(out, s);
+			}
+
+			// nodes
+			writeVarint(out, nodes.size());
+			for (Bookmark node : nodes) {
+				out.writeByte(CompactBookmarkTree.kindOf(node));
+				writeVarint(out, node.getChildren().size());
+				writeVarint(out, index(strings, node.getName()));
+				writeVarint(out, index(strings, node.getTitle()));
+				writeVarint(out, index(strings, node.isLink() ? node.getUri() : null));
+				writeVarint(out, index(strings, node.getDescription()));
+				writeVarint(out, index(strings, node.getExportId()));
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void collect(Bookmark node, Map<String, Integer> strings, List<Bookmark> nodes) {
+		nodes.add(node);
+		intern(strings, node.getName());
+		intern(strings, node.getTitle());
+		if (node.isLink()) {
+			intern(strings, node.getUri());
+		}
+		intern(strings, node.getDescription());
+		intern(strings, node.getExportId());
+		for (Bookmark child : node.getChildren()) {
+			collect(child, strings, nodes);
+		}
+	}
+
+	private static void intern(Map<String, Integer> strings, String s) {
+		if (s != null && !strings.containsKey(s)) {
+			strings.put(s, Integer.valueOf(strings.size() + 1)); // 0 is null
+		}
+	}
+
+	private static int index(Map<String, Integer> strings, String s) {
+		return s == null ? 0 : strings.get(s).intValue();
+	}
+
+	private static boolean readHeader(ByteBuffer buffer, File source) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(magic, MAGIC) || buffer.get() != VERSION) {
+			return false;
+		}
+		String path = readString(buffer);
+		long size = buffer.getLong();
+		long lastModified = buffer.getLong();
+		byte[] hash = new byte[readVarint(buffer)];
+		buffer.get(hash);
+		
+		// cheap checks first
+		boolean sameFile = path.equals(source.getAbsolutePath()) && size == source.length() && lastModified == source.lastModified();
+		return sameFile && Arrays.equals(hash, hash(source));
+	}
+
+	private static String[] readStrings(ByteBuffer buffer) {
+		String[] result = new String[readVarint(buffer) + 1];
+		for (int i = 1; i < result.length; i++) {
+			result[i] = readString(buffer);
+		}
+		return result;
+	}
+
+	private static void readNode(ByteBuffer buffer, String[] strings, CompactBookmarkTree.Builder builder, int parent) {
+		int node = builder.begin(parent);
+		byte kind = buffer.get();
+		int childCount = readVarint(buffer);
+		String name = strings[readVarint(buffer)];
+		String title = strings[readVarint(buffer)];
+		String uri = strings[readVarint(buffer)];
+		String description = strings[readVarint(buffer)];
+		String exportId = strings[readVarint(buffer)];
+		builder.end(node, kind, name, title, uri, description, exportId);
+		for (int i = 0; i < childCount; i++) {
+			readNode(buffer, strings, builder, node);
+		}
+	}
+
+	/**
+	 * What a snapshot was taken from: path, size, time and hash of a bookmarks
+	 * file.
+	 */
+	public static final class Fingerprint {
+
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final byte[] hash;
+
+		private Fingerprint(String path, long size, long lastModified, byte[] hash) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hash = hash;
+		}
+
+		/**
+		 * @param source the bookmarks file
+		 * @return the fingerprint of its current contents
+		 * @throws IOException
+		 */
+		public static Fingerprint of(File source) throws IOException {
+			// size and time first, a save while hashing then changes the hash or the time
+			long size = source.length();
+			long lastModified = source.lastModified();
+			return new Fingerprint(source.getAbsolutePath(), size, lastModified, hash(source));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Fingerprint)) {
+				return false;
+			}
+			Fingerprint other = (Fingerprint) obj;
+			return path.equals(other.path) && size == other.size && lastModified == other.lastModified && Arrays.equals(hash, other.hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(hash);
+		}
+	}
+
+	/**
+	 * SHA-256 of the file contents.
+	 * 
+	 * @param source
+	 * @return hash
+	 * @throws IOException
+	 */
+	static byte[] hash(File source) throws IOException {
+		MessageDigest digest = Utils.newSHA256();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(source.toPath()), digest)) {
+			byte[] chunk = new byte[8192];
+			while (in.read(chunk) != -1) {
+				// digest all
+			}
+		}
+		return digest.digest();
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[readVarint(buffer)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarint(ByteBuffer buffer) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = buffer.get();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IllegalStateException("Malformed varint");
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Predicate;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkReader;
+import se.p2r.foxport.util.Log;
+
+/**
+ * Reader that keeps a {@link SnapshotFile} of the tree loaded by another
+ * reader. If the bookmarks file has not changed since the snapshot was taken,
+ * the tree is restored from the snapshot instead of being parsed. Otherwise the
+ * complete tree is parsed (ignoring any projection filter, so that the snapshot
+ * is useful regardless of what is exported) and a new snapshot is written,
+ * unless the file changed while it was parsed.
+ * 
+ * @author peer
+ *
+ */
+public class SnapshotReader implements BookmarkReader {
+
+	private final BookmarkReader source;
+	private final SnapshotFile snapshot;
+
+	public SnapshotReader(BookmarkReader source, File snapshotFile) {
+		this.source = source;
+		this.snapshot = new SnapshotFile(snapshotFile);
+	}
+
+	@Override
+	public Bookmark load() {
+		File inputFile = source.getInputFile();
+		try {
+			long start = System.currentTimeMillis();
+			Bookmark result = snapshot.read(inputFile);
+			if (result != null) {
+				Log.log(String.format("Loaded bookmarks from snapshot %s (%d ms)", snapshot.getFile(), Long.valueOf(System.currentTimeMillis() - start)));
+				return result;
+			}
+		} catch (IOException e) {
+			Log.warn("Ignoring snapshot: " + e.getMessage());
+		}
+
+		SnapshotFile.Fingerprint fingerprint = null;
+		try {
+			fingerprint = SnapshotFile.Fingerprint.of(inputFile);
+		} catch (IOException e) {
+			Log.warn("Unable to snapshot " + inputFile + ": " + e.getMessage());
+		}
+		Bookmark result = source.load();
+		try {
+			// the parsed tree matches the fingerprint only if the file did not change meanwhile
+			if (fingerprint != null && fingerprint.equals(SnapshotFile.Fingerprint.of(inputFile))) {
+				snapshot.write(fingerprint, result);
+				Log.debug("Wrote snapshot " + snapshot.getFile());
+			} else if (fingerprint != null) {
+				Log.debug("Bookmarks changed while parsing, no snapshot written");
+			}
+		} catch (IOException | RuntimeException e) {
+			Log.warn("Unable to write snapshot " + snapshot.getFile() + ": " + e.getMessage());
+		}
+		return result;
+	}
+
+	@Override
+	public Bookmark load(Predicate<? super Bookmark> rootFilter) {
+		return load(); // snapshot the complete tree
+	}
+
+	@Override
+	public long getTimestamp() {
+		return source.getTimestamp();
+	}
+
+	@Override
+	public String getContentKey() {
+		return source.getContentKey();
+	}
+
+	@Override
+	public File getInputFile() {
+		return source.getInputFile();
+	}
+
+}
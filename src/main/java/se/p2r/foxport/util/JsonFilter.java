@@ -22,7 +22,7 @@ import java.io.File;
 import java.io.FileFilter;
 
 /**
- * A file filter for selection JSON files.
+ * A file filter for selection JSON files, plain or compressed (Firefox mozLz4).
  * 
  * @author peer
  *
@@ -33,15 +33,15 @@ public final class JsonFilter implements FileFilter {
 	
 	@Override
 	public boolean accept(File pathname) {	
-		return endsWith(pathname, JSON);
+		return endsWith(pathname, JSON) || endsWith(pathname, JSONLZ4);
 	}
 
 	@Override
 	public String toString() {
-		return "'*"+JSON+"'";
+		return "'*"+JSON+"', '*"+JSONLZ4+"'";
 	}
 
 	public static FileFilter instance() {
 		return INSTANCE;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that grow by 25%, so a percentile is known
+ * within 25% whatever the number of samples, in a fixed amount of memory: a
+ * streaming quantile sketch, which may be saved as text and loaded again.
+ * Thread safe, recording does not lock.
+ * 
+ * @author peer
+ *
+ */
+public class LatencyHistogram {
+
+	private static final long[] BOUNDS = bounds(10 * 60 * 1000L);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param millis a latency (ms)
+	 */
+	public void record(long millis) {
+		int i = Arrays.binarySearch(BOUNDS, millis);
+		counts.incrementAndGet(i >= 0 ? i : -i - 1);
+		count.incrementAndGet();
+		max.accumulateAndGet(millis, Math::max);
+	}
+
+	/**
+	 * Halve the count of every bucket, so that older latencies weigh less than
+	 * those recorded after. The highest latency is kept.
+	 */
+	public void decay() {
+		for (int i = 0; i < counts.length(); i++) {
+			long before = counts.getAndUpdate(i, n -> n / 2);
+			count.addAndGet(before / 2 - before);
+		}
+	}
+
+	/**
+	 * @return number of latencies recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return highest latency recorded (ms)
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile for example 99
+	 * @return upper bound (ms) of the latencies below the percentile, 0 if
+	 *         nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			seen += counts.get(i);
+			if (seen >= rank && seen > 0) {
+				return Math.min(BOUNDS[i], max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return the counts in a compact text form, see {@link #decode(String)}
+	 */
+	public String encode() {
+		StringBuilder sb = new StringBuilder().append(max.get());
+		char separator = ';';
+		for (int i = 0; i < counts.length(); i++) {
+			long n = counts.get(i);
+			if (n > 0) {
+				sb.append(separator).append(i).append(':').append(n);
+				separator = ',';
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param encoded from {@link #encode()}
+	 * @throws IllegalArgumentException if not an encoded histogram
+	 */
+	public static LatencyHistogram decode(String encoded) {
+		LatencyHistogram histogram = new LatencyHistogram();
+		String[] parts = encoded.split(";", 2);
+		histogram.max.set(Long.parseLong(parts[0]));
+		if (parts.length == 1 || parts[1].isEmpty()) {
+			return histogram;
+		}
+		for (String bucket : parts[1].split(",")) {
+			String[] pair = bucket.split(":", 2);
+			if (pair.length != 2) {
+				throw new IllegalArgumentException("Not a histogram bucket: " + bucket);
+			}
+			int i = Integer.parseInt(pair[0]);
+			long n = Long.parseLong(pair[1]);
+			if (i < 0 || i >= histogram.counts.length() || n < 0) {
+				throw new IllegalArgumentException("Not a histogram bucket: " + bucket);
+			}
+			histogram.counts.addAndGet(i, n);
+			histogram.count.addAndGet(n);
+		}
+		return histogram;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("p50 %d ms, p90 %d ms, p99 %d ms, max %d ms", Long.valueOf(getPercentile(50)), Long.valueOf(getPercentile(90)), Long.valueOf(getPercentile(99)), Long.valueOf(getMax()));
+	}
+
+	private static long[] bounds(long limit) {
+		List<Long> bounds = new ArrayList();
+		for (long bound = 1; bound < limit; bound = Math.max(bound + 1, bound * 5 / 4)) {
+			bounds.add(Long.valueOf(bound));
+		}
+		bounds.add(Long.valueOf(limit));
+		return bounds.stream().mapToLong(Long::longValue).toArray();
+	}
+
+}
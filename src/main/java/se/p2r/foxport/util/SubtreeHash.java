@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import se.p2r.foxport.Bookmark;
+
+/**
+ * Merkle hash of a bookmark subtree: the hash of a node covers its kind, name,
+ * title, URI, description and export id, followed by the hashes of its
+ * children in order. Computed bottom-up, so a change anywhere in a subtree
+ * changes the hash of every container above it, and nothing else.
+ * 
+ * @author peer
+ *
+ */
+public final class SubtreeHash {
+	private SubtreeHash() {} // static utility
+
+	/**
+	 * @param node
+	 * @return SHA-256 of the subtree
+	 */
+	public static byte[] of(Bookmark node) {
+		MessageDigest digest = Utils.newSHA256();
+		digest.update((byte) (node.isLink() ? 1 : node.isContainer() ? 2 : 0));
+		update(digest, node.getName());
+		update(digest, node.getTitle());
+		update(digest, node.isLink() ? node.getUri() : null); // containers may not support URIs
+		update(digest, node.getDescription());
+		update(digest, node.getExportId());
+		List<? extends Bookmark> children = node.getChildren();
+		updateInt(digest, children.size());
+		for (Bookmark child : children) {
+			digest.update(of(child));
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Hash of an exported file: its subtree plus the strings (title, output mode
+	 * etc) that also go into the file.
+	 * 
+	 * @param root
+	 * @param context
+	 * @return hex String
+	 */
+	public static String of(Bookmark root, String... context) {
+		MessageDigest digest = Utils.newSHA256();
+		for (String s : context) {
+			update(digest, s);
+		}
+		digest.update(of(root));
+		return Utils.toHex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		if (s == null) {
+			updateInt(digest, -1);
+		} else {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			updateInt(digest, bytes.length);
+			digest.update(bytes);
+		}
+	}
+
+	private static void updateInt(MessageDigest digest, int i) {
+		digest.update((byte) (i >>> 24));
+		digest.update((byte) (i >>> 16));
+		digest.update((byte) (i >>> 8));
+		digest.update((byte) i);
+	}
+
+}
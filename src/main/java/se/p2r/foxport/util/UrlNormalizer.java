@@ -0,0 +1,88 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.util;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * Normalize links so that equivalent URLs are probed (and cached) once: scheme
+ * and host are lowercased, a default port is removed, an empty path becomes
+ * "/" and the fragment is stripped. Path and query are case sensitive and are
+ * kept as is.
+ * 
+ * @author peer
+ *
+ */
+public final class UrlNormalizer {
+	private UrlNormalizer() {} // static utility
+
+	/**
+	 * @param link
+	 * @return the normalized link, or the link itself if it cannot be parsed
+	 *         (probing will report it)
+	 */
+	public static String normalize(String link) {
+		if (link == null) {
+			return null;
+		}
+		try {
+			URI uri = new URI(link.trim());
+			if (uri.isOpaque() || uri.getScheme() == null) {
+				return link;
+			}
+			String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+			if (uri.getHost() == null) {
+				// file:/// or a registry based authority
+				return scheme + ":" + uri.getRawSchemeSpecificPart();
+			}
+			String host = uri.getHost().toLowerCase(Locale.ROOT);
+			int port = uri.getPort() == defaultPort(scheme) ? -1 : uri.getPort();
+			String path = uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+			StringBuilder sb = new StringBuilder(link.length());
+			sb.append(scheme).append("://");
+			if (uri.getRawUserInfo() != null) {
+				sb.append(uri.getRawUserInfo()).append('@');
+			}
+			sb.append(host);
+			if (port != -1) {
+				sb.append(':').append(port);
+			}
+			sb.append(path);
+			if (uri.getRawQuery() != null) {
+				sb.append('?').append(uri.getRawQuery());
+			}
+			return sb.toString();
+		} catch (URISyntaxException e) {
+			return link;
+		}
+	}
+
+	private static int defaultPort(String scheme) {
+		switch (scheme) {
+		case "http":
+			return 80;
+		case "https":
+			return 443;
+		case "ftp":
+			return 21;
+		default:
+			return -1;
+		}
+	}
+
+}
@@ -23,6 +23,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Date;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -109,6 +111,47 @@ public final class Utils {
 		return today;
 	}
 
+	/**
+	 * Parse a duration such as <code>90s</code>, <code>15m</code>,
+	 * <code>12h</code> or <code>7d</code>. A number without unit is seconds.
+	 * 
+	 * @param s
+	 * @return duration in ms
+	 * @throws IllegalArgumentException if not a valid duration
+	 */
+	public static long parseDuration(String s) {
+		String value = s.trim().toLowerCase();
+		long unit = 1000;
+		switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+		case 's':
+			value = value.substring(0, value.length() - 1);
+			break;
+		case 'm':
+			unit = 60 * 1000L;
+			value = value.substring(0, value.length() - 1);
+			break;
+		case 'h':
+			unit = 60 * 60 * 1000L;
+			value = value.substring(0, value.length() - 1);
+			break;
+		case 'd':
+			unit = 24 * 60 * 60 * 1000L;
+			value = value.substring(0, value.length() - 1);
+			break;
+		default:
+			break;
+		}
+		try {
+			long amount = Long.parseLong(value.trim());
+			if (amount < 0) {
+				throw new IllegalArgumentException("Negative duration: " + s);
+			}
+			return amount * unit;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid duration: " + s + " (expected for example 90s, 15m, 12h or 7d)", e);
+		}
+	}
+
 	/**
 	 * Extract the id for external export (this will be the name of the exported file), if defined.
 	 * 
@@ -132,6 +175,29 @@ public final class Utils {
 		return !undefined;
 	}
 
+	/**
+	 * @return a new SHA-256 digest
+	 */
+	public static MessageDigest newSHA256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new FatalException("No SHA-256 available", e);
+		}
+	}
+
+	/**
+	 * @param bytes
+	 * @return lower case hex string
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", Integer.valueOf(b & 0xFF)));
+		}
+		return sb.toString();
+	}
+
 	public static Properties loadPropertyFileResource(String filename) {
 		Properties result = new Properties();
 		InputStream input = null;
@@ -171,4 +237,4 @@ public final class Utils {
 	public static Collection<String> toNames(Collection<? extends Bookmark> bookmarks) {
 		return bookmarks.stream().map(b->b==null ? String.valueOf(null) : b.getName()).collect(Collectors.toList());
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
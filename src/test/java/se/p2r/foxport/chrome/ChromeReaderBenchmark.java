@@ -0,0 +1,154 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.chrome;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.function.Predicate;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkReader.Mode;
+import se.p2r.foxport.util.Utils;
+
+/**
+ * Not a unit test. Compares parse time, peak heap and the heap retained by the
+ * loaded tree for the streaming and the
+ * reflective Chrome parser, for the compact tree, and for a projected parse
+ * that keeps one root folder in ten. Run with an optional path to a Bookmarks file, or
+ * without arguments to generate a synthetic file (with a large
+ * <code>sync_metadata</code> blob) in the temp directory.
+ * 
+ * <pre>
+ * java -Xmx1g se.p2r.foxport.chrome.ChromeReaderBenchmark [Bookmarks] [iterations]
+ * </pre>
+ * 
+ * @author peer
+ *
+ */
+public class ChromeReaderBenchmark {
+
+	private static final int SYNTHETIC_LINKS = 200000;
+	private static final int LINKS_PER_FOLDER = 50;
+	private static final Predicate<Bookmark> PROJECTION = p -> p.getName().endsWith("0"); // one folder in ten
+
+	public static void main(String[] args) throws IOException {
+		File file = args.length > 0 ? new File(args[0]) : generate(SYNTHETIC_LINKS);
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		System.out.println(String.format("Benchmarking %s (%d bytes), %d iterations", file, Long.valueOf(file.length()), Integer.valueOf(iterations)));
+
+		// warm up all paths before measuring
+		for (Mode mode : Mode.values()) {
+			run(file, mode, null, 3);
+		}
+		run(file, Mode.STREAMING, PROJECTION, 3);
+
+		report("reflection", file, Mode.REFLECTION, null, iterations);
+		report("streaming", file, Mode.STREAMING, null, iterations);
+		report("compact", file, Mode.COMPACT, null, iterations);
+		report("projection", file, Mode.STREAMING, PROJECTION, iterations);
+	}
+
+	private static void report(String label, File file, Mode mode, Predicate<Bookmark> filter, int iterations) {
+		gc();
+		resetPeaks();
+		long heapBefore = usedHeap();
+		long start = System.nanoTime();
+		Bookmark root = run(file, mode, filter, iterations);
+		long ms = (System.nanoTime() - start) / 1000000 / iterations;
+		long peak = peakHeap() - heapBefore;
+		gc();
+		long retained = usedHeap() - heapBefore;
+		System.out.println(String.format("%-12s %6d ms/parse  peak heap %6d kB  retained %6d kB (%s)", label, Long.valueOf(ms), Long.valueOf(peak / 1024), Long.valueOf(retained / 1024), root.getName()));
+	}
+
+	private static Bookmark run(File file, Mode mode, Predicate<Bookmark> filter, int iterations) {
+		Bookmark root = null;
+		for (int i = 0; i < iterations; i++) {
+			ChromeReader reader = new ChromeReader(file, mode);
+			root = filter == null ? reader.load() : reader.load(filter);
+			if (root == null) {
+				throw new IllegalStateException("No bookmarks: " + file);
+			}
+		}
+		return root;
+	}
+
+	private static void gc() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+	}
+
+	private static void resetPeaks() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long peakHeap() {
+		long result = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				result += pool.getPeakUsage().getUsed();
+			}
+		}
+		return result;
+	}
+
+	/* Write a Chrome-like file with folders of links, meta info and a sync blob */
+	private static File generate(int links) throws IOException {
+		File file = File.createTempFile("ChromeReaderBenchmark", ".json");
+		file.deleteOnExit();
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), Utils.ENCODING_JSON))) {
+			out.println("{\"checksum\": \"cc267be57bab38a09136ef0bd57d278d\", \"roots\": {");
+			out.println("\"bookmark_bar\": {\"children\": [], \"id\": \"1\", \"name\": \"Bookmarks bar\", \"type\": \"folder\"},");
+			out.println("\"other\": {\"children\": [");
+			int id = 10;
+			for (int folder = 0; folder * LINKS_PER_FOLDER < links; folder++) {
+				out.print(folder == 0 ? "" : ",");
+				out.println("{\"children\": [");
+				for (int link = 0; link < LINKS_PER_FOLDER; link++) {
+					out.print(link == 0 ? "" : ",");
+					out.println(String.format("{\"date_added\": \"13168342699618897\", \"id\": \"%d\", \"meta_info\": {\"last_visited_desktop\": \"13168342699619004\"}, "
+							+ "\"name\": \"Link %d in folder %d\", \"type\": \"url\", \"url\": \"https://www.example%d.com/path/%d\"}", 
+							Integer.valueOf(id++), Integer.valueOf(link), Integer.valueOf(folder), Integer.valueOf(folder), Integer.valueOf(link)));
+				}
+				out.println(String.format("], \"date_added\": \"13168342865939191\", \"id\": \"%d\", \"meta_info\": {\"stars.description\": \"#f%d#Folder %d;Some text\"}, \"name\": \"Folder %d\", \"type\": \"folder\"}",
+						Integer.valueOf(id++), Integer.valueOf(folder), Integer.valueOf(folder), Integer.valueOf(folder)));
+			}
+			out.println("], \"id\": \"2\", \"name\": \"Other bookmarks\", \"type\": \"folder\"}");
+			out.println("}, \"sync_metadata\": \"");
+			for (int i = 0; i < links; i++) {
+				out.print("CgYIARAAGAAQABoUCgwIAhAAGAAgACgAMAASBAgBEAE=");
+			}
+			out.println("\", \"version\": 1}");
+		}
+		return file;
+	}
+
+}
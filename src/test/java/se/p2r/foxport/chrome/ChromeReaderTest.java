@@ -0,0 +1,139 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.chrome;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkReader.Mode;
+
+/**
+ * Verify that the streaming parser produces the same tree as Gson reflection,
+ * and that the content key only follows exportable contents.
+ * 
+ * @author peer
+ *
+ */
+public class ChromeReaderTest {
+
+	private static final File DATA = new File("src/test/data");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void streamingEqualsReflectionWithDescriptions() {
+		compare(new File(DATA, "ChromeBookmarksSample-WithDescriptions.json"));
+	}
+
+	@Test
+	public void streamingEqualsReflectionPlain() {
+		compare(new File(DATA, "ChromeBookmarksSample-plain.json"));
+	}
+
+	@Test
+	public void projectionSkipsRejectedRoots() {
+		File file = new File(DATA, "ChromeBookmarksSample-WithDescriptions.json");
+		Bookmark full = new ChromeReader(file, Mode.STREAMING).load();
+		Bookmark projected = new ChromeReader(file, Mode.STREAMING).load(p -> p.getName().startsWith("F"));
+
+		List<? extends Bookmark> expected = full.getChildren().stream().filter(p -> p.getName().startsWith("F")).collect(Collectors.toList());
+		assertEquals(1, expected.size());
+		assertEquals(expected.size(), projected.getChildren().size());
+		assertSame(expected.get(0), projected.getChildren().get(0));
+	}
+
+	@Test
+	public void projectionIgnoresRewriteBetweenPasses() throws IOException {
+		File original = new File(DATA, "ChromeBookmarksSample-WithDescriptions.json");
+		File file = tmp.newFile();
+		Files.copy(original.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Bookmark expected = new ChromeReader(file, Mode.STREAMING).load(p -> p.getName().startsWith("F"));
+
+		// Chrome saves the file while the scan is running
+		byte[] rewritten = Files.readAllBytes(new File(DATA, "ChromeBookmarksSample-plain.json").toPath());
+		Bookmark projected = new ChromeReader(file, Mode.STREAMING).load(p -> {
+			try {
+				Files.write(file.toPath(), rewritten);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return p.getName().startsWith("F");
+		});
+		assertSame(expected, projected);
+	}
+
+	@Test
+	public void contentKeyIgnoresVisits() throws IOException {
+		File file = new File(DATA, "ChromeBookmarksSample-WithDescriptions.json");
+		String key = new ChromeReader(file, Mode.STREAMING).getContentKey();
+		assertNotNull(key);
+		assertTrue(key.startsWith("cc267be57bab38a09136ef0bd57d278d:"));
+
+		File visited = edit(file, "\"last_visited_desktop\": \"13168342635962622\"", "\"last_visited_desktop\": \"13168342635999999\"");
+		assertEquals(key, new ChromeReader(visited, Mode.STREAMING).getContentKey());
+
+		File described = edit(file, "Företag som hanterar pengar", "Företag som hanterar mycket pengar");
+		assertNotEquals(key, new ChromeReader(described, Mode.STREAMING).getContentKey());
+	}
+
+	private File edit(File file, String from, String to) throws IOException {
+		String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		assertTrue(contents.contains(from));
+		File result = tmp.newFile();
+		Files.write(result.toPath(), contents.replace(from, to).getBytes(StandardCharsets.UTF_8));
+		return result;
+	}
+
+	private static void compare(File file) {
+		Bookmark expected = new ChromeReader(file, Mode.REFLECTION).load();
+		Bookmark actual = new ChromeReader(file, Mode.STREAMING).load();
+		assertSame(expected, actual);
+	}
+
+	private static void assertSame(Bookmark expected, Bookmark actual) {
+		String msg = String.valueOf(expected);
+		assertEquals(msg, ((ChromeBookmark) expected).getId(), ((ChromeBookmark) actual).getId());
+		assertEquals(msg, expected.getName(), actual.getName());
+		assertEquals(msg, expected.getTitle(), actual.getTitle());
+		assertEquals(msg, expected.getUri(), actual.getUri());
+		assertEquals(msg, expected.getDescription(), actual.getDescription());
+		assertEquals(msg, expected.getExportId(), actual.getExportId());
+		assertEquals(msg, expected.isLink(), actual.isLink());
+		assertEquals(msg, expected.isContainer(), actual.isContainer());
+		assertEquals(msg, expected.hasChildren(), actual.hasChildren());
+
+		List<? extends Bookmark> expectedChildren = expected.getChildren();
+		List<? extends Bookmark> actualChildren = actual.getChildren();
+		assertEquals(msg, expectedChildren.size(), actualChildren.size());
+		for (int i = 0; i < expectedChildren.size(); i++) {
+			assertSame(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.compact;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkReader;
+import se.p2r.foxport.BookmarkReader.Mode;
+import se.p2r.foxport.chrome.ChromeReader;
+import se.p2r.foxport.firefox.FirefoxReader;
+
+/**
+ * Verify that the compact tree looks the same as the bean trees through the
+ * {@link Bookmark} interface.
+ * 
+ * @author peer
+ *
+ */
+public class CompactBookmarkTreeTest {
+
+	private static final File DATA = new File("src/test/data");
+
+	@Test
+	public void chromeCompactEqualsStreaming() {
+		File file = new File(DATA, "ChromeBookmarksSample-WithDescriptions.json");
+		assertSame(new ChromeReader(file, Mode.STREAMING).load(), new ChromeReader(file, Mode.COMPACT).load());
+	}
+
+	@Test
+	public void chromeCompactProjection() {
+		File file = new File(DATA, "ChromeBookmarksSample-WithDescriptions.json");
+		Predicate<Bookmark> filter = p -> p.getName().startsWith("F");
+		assertSame(new ChromeReader(file, Mode.STREAMING).load(filter), new ChromeReader(file, Mode.COMPACT).load(filter));
+	}
+
+	@Test
+	public void firefoxCompactEqualsStreaming() {
+		File file = new File(DATA, "bookmarks-2018-04-10.json");
+		assertSame(new FirefoxReader(file, Mode.STREAMING).load(), new FirefoxReader(file, Mode.COMPACT).load());
+	}
+
+	@Test
+	public void firefoxCompactEqualsStreamingOldFormat() {
+		File file = new File(DATA, "bookmarks-2014-01-04_10819.json");
+		assertSame(new FirefoxReader(file, Mode.STREAMING).load(), new FirefoxReader(file, Mode.COMPACT).load());
+	}
+
+	@Test
+	public void firefoxCompactProjection() {
+		File file = new File(DATA, "bookmarks-2018-04-10.json");
+		Collection<String> wanted = Arrays.asList("media", "travel");
+		Predicate<Bookmark> filter = p -> wanted.contains(p.getName());
+		BookmarkReader reader = new FirefoxReader(file, Mode.COMPACT);
+		Bookmark projected = reader.load(filter);
+		assertEquals(wanted.size(), projected.getChildren().size());
+		assertSame(new FirefoxReader(file, Mode.STREAMING).load(filter), projected);
+	}
+
+	@Test
+	public void discardDropsSubtree() {
+		CompactBookmarkTree.Builder builder = new CompactBookmarkTree.Builder();
+		int root = builder.begin(-1);
+		int kept = builder.begin(root);
+		builder.end(kept, CompactBookmarkTree.LINK, "kept", "kept", "http://kept", null, null);
+		int dropped = builder.begin(root);
+		int grandChild = builder.begin(dropped);
+		builder.end(grandChild, CompactBookmarkTree.LINK, "grandchild", "grandchild", "http://grandchild", null, null);
+		builder.end(dropped, CompactBookmarkTree.CONTAINER, "dropped", "dropped", null, null, null);
+		builder.discard(dropped);
+		int last = builder.begin(root);
+		builder.end(last, CompactBookmarkTree.LINK, "last", "last", "http://kept", null, null);
+		builder.end(root, CompactBookmarkTree.CONTAINER, "root", "Root", null, "A description", "root");
+
+		CompactBookmarkTree tree = builder.build();
+		assertEquals(3, tree.size());
+		CompactBookmark rootBookmark = tree.getRoot();
+		assertEquals("Root", rootBookmark.getTitle());
+		assertEquals("root", rootBookmark.getExportId());
+		assertTrue(rootBookmark.isTaggedForExport());
+		List<CompactBookmark> children = rootBookmark.getChildren();
+		assertEquals(2, children.size());
+		assertEquals("kept", children.get(0).getName());
+		assertEquals("last", children.get(1).getName());
+		assertEquals(rootBookmark, children.get(1).getParent());
+		assertFalse(children.get(1).hasChildren());
+	}
+
+	private static void assertSame(Bookmark expected, Bookmark actual) {
+		String msg = String.valueOf(expected);
+		assertEquals(msg, expected.getName(), actual.getName());
+		assertEquals(msg, expected.getTitle(), actual.getTitle());
+		assertEquals(msg, expected.getDescription(), actual.getDescription());
+		assertEquals(msg, expected.getExportId(), actual.getExportId());
+		assertEquals(msg, expected.isLink(), actual.isLink());
+		assertEquals(msg, expected.isContainer(), actual.isContainer());
+		assertEquals(msg, expected.hasChildren(), actual.hasChildren());
+		if (expected.isLink()) {
+			assertEquals(msg, expected.getUri(), actual.getUri());
+		}
+
+		List<? extends Bookmark> expectedChildren = expected.getChildren();
+		List<? extends Bookmark> actualChildren = actual.getChildren();
+		assertEquals(msg, expectedChildren.size(), actualChildren.size());
+		for (int i = 0; i < expectedChildren.size(); i++) {
+			assertSame(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.firefox;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkReader.Mode;
+
+/**
+ * Verify that the streaming parser produces the same tree as Gson reflection,
+ * and that projection only drops what was rejected.
+ * 
+ * @author peer
+ *
+ */
+public class FirefoxReaderTest {
+
+	private static final File DATA = new File("src/test/data");
+	private static final File JSON = new File(DATA, "bookmarks-2018-04-10.json");
+
+	@Test
+	public void streamingEqualsReflection() {
+		assertSame(load(JSON, Mode.REFLECTION), load(JSON, Mode.STREAMING));
+	}
+
+	@Test
+	public void streamingEqualsReflectionOldFormat() {
+		File file = new File(DATA, "bookmarks-2014-01-04_10819.json");
+		assertSame(load(file, Mode.REFLECTION), load(file, Mode.STREAMING));
+	}
+
+	@Test
+	public void projectionSkipsRejectedRoots() {
+		Collection<String> wanted = Arrays.asList("media", "travel");
+		Predicate<Bookmark> filter = p -> wanted.contains(p.getName());
+		FirefoxBookmark full = load(JSON, Mode.STREAMING);
+		FirefoxBookmark projected = (FirefoxBookmark) new FirefoxReader(JSON).load(filter);
+
+		List<FirefoxBookmark> expected = full.getChildren().stream().filter(filter).collect(Collectors.toList());
+		assertEquals(wanted.size(), expected.size());
+		assertEquals(expected.size(), projected.getChildren().size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSame(expected.get(i), projected.getChildren().get(i));
+		}
+	}
+
+	private static FirefoxBookmark load(File file, Mode mode) {
+		return (FirefoxBookmark) new FirefoxReader(file, mode).load();
+	}
+
+	private static void assertSame(FirefoxBookmark expected, FirefoxBookmark actual) {
+		String msg = String.valueOf(expected);
+		assertEquals(msg, expected.getId(), actual.getId());
+		assertEquals(msg, expected.getParent(), actual.getParent());
+		assertEquals(msg, expected.getName(), actual.getName());
+		assertEquals(msg, expected.getUri(), actual.getUri());
+		assertEquals(msg, expected.getRoot(), actual.getRoot());
+		assertEquals(msg, expected.getDescription(), actual.getDescription());
+		assertEquals(msg, expected.isLink(), actual.isLink());
+		assertEquals(msg, expected.isContainer(), actual.isContainer());
+
+		List<FirefoxBookmark> expectedChildren = expected.getChildren();
+		List<FirefoxBookmark> actualChildren = actual.getChildren();
+		assertEquals(msg, expectedChildren.size(), actualChildren.size());
+		for (int i = 0; i < expectedChildren.size(); i++) {
+			assertSame(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.firefox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Not a unit test. Measures mozLz4 decode throughput, and the cost of reading a
+ * compressed backup compared to a plain JSON export. Run with an optional path
+ * to a Firefox JSON backup (defaults to the largest sample in
+ * <code>src/test/data</code>).
+ * 
+ * <pre>
+ * java se.p2r.foxport.firefox.MozLz4Benchmark [bookmarks.json] [iterations]
+ * </pre>
+ * 
+ * @author peer
+ *
+ */
+public class MozLz4Benchmark {
+
+	public static void main(String[] args) throws IOException {
+		File json = new File(args.length > 0 ? args[0] : "src/test/data/bookmarks-2018-04-10.json");
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		byte[] plain = Files.readAllBytes(json.toPath());
+		byte[] frame = MozLz4Decoder.encode(plain);
+		File jsonlz4 = File.createTempFile("MozLz4Benchmark", ".jsonlz4");
+		jsonlz4.deleteOnExit();
+		Files.write(jsonlz4.toPath(), frame);
+		System.out.println(String.format("%s: %d bytes, compressed %d bytes, %d iterations", json, Integer.valueOf(plain.length), Integer.valueOf(frame.length), Integer.valueOf(iterations)));
+
+		// decode only
+		for (int i = 0; i < iterations; i++) {
+			MozLz4Decoder.decode(frame); // warm up
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			MozLz4Decoder.decode(frame);
+		}
+		long nanos = (System.nanoTime() - start) / iterations;
+		double mbPerSecond = plain.length / (nanos / 1e9) / (1024 * 1024);
+		System.out.println(String.format("decode       %8.2f ms  %8.1f MB/s (decompressed)", Double.valueOf(nanos / 1e6), Double.valueOf(mbPerSecond)));
+
+		// decode and parse vs plain parse
+		System.out.println(String.format("load .json   %8.2f ms", Double.valueOf(load(json, iterations))));
+		System.out.println(String.format("load .jsonlz4%8.2f ms", Double.valueOf(load(jsonlz4, iterations))));
+	}
+
+	private static double load(File file, int iterations) {
+		int rounds = Math.max(1, iterations / 10);
+		for (int i = 0; i < rounds; i++) {
+			new FirefoxReader(file).load(); // warm up
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			new FirefoxReader(file).load();
+		}
+		return (System.nanoTime() - start) / 1e6 / rounds;
+	}
+
+}
@@ -0,0 +1,79 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.firefox;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.Bookmark;
+
+/**
+ * Round trip a Firefox backup through the mozLz4 format.
+ * 
+ * @author peer
+ *
+ */
+public class MozLz4DecoderTest {
+
+	private static final File JSON = new File("src/test/data/bookmarks-2018-04-10.json");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException {
+		byte[] json = Files.readAllBytes(JSON.toPath());
+		assertArrayEquals(json, MozLz4Decoder.decode(MozLz4Decoder.encode(json)));
+	}
+
+	@Test
+	public void readCompressedBackup() throws IOException {
+		File jsonlz4 = tmp.newFile("bookmarks-2018-04-10.jsonlz4");
+		Files.write(jsonlz4.toPath(), MozLz4Decoder.encode(Files.readAllBytes(JSON.toPath())));
+
+		Bookmark expected = new FirefoxReader(JSON).load();
+		Bookmark actual = new FirefoxReader(jsonlz4).load();
+		assertEquals(expected.getTitle(), actual.getTitle());
+		assertEquals(expected.getChildren().size(), actual.getChildren().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badMagic() {
+		MozLz4Decoder.decode("{\"title\":\"\"}".getBytes());
+	}
+
+	@Test
+	public void sizeTooLarge() {
+		byte[] frame = MozLz4Decoder.encode("{\"title\":\"\"}".getBytes());
+		ByteBuffer.wrap(frame, 8, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(Integer.MAX_VALUE);
+		try {
+			MozLz4Decoder.decode(frame);
+			fail("size not checked");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Bad size"));
+		}
+	}
+
+}
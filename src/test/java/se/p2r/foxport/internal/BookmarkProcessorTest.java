@@ -0,0 +1,132 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.BookmarkReader;
+import se.p2r.foxport.BookmarkReader.Mode;
+import se.p2r.foxport.chrome.ChromeReader;
+import se.p2r.foxport.internal.exceptions.ConfigurationException;
+import se.p2r.foxport.net.LinkCrawler;
+import se.p2r.foxport.net.LinkProber;
+import se.p2r.foxport.net.ProbeCache;
+import se.p2r.foxport.util.BrowserType;
+
+/**
+ * Verify that exporting root folders in parallel gives the same files, in the
+ * same order, as exporting them one by one; and that an export skipped leaves
+ * the links of a crawler as they were.
+ * 
+ * @author peer
+ *
+ */
+public class BookmarkProcessorTest {
+
+	private static final File SAMPLE = new File("src/test/data/ChromeBookmarksSample-WithDescriptions.json");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void parallelEqualsSequential() throws IOException, ConfigurationException {
+		File sequentialFolder = tmp.newFolder("sequential");
+		File parallelFolder = tmp.newFolder("parallel");
+		List<File> sequential = newProcessor(sequentialFolder, 1).process();
+		List<File> parallel = newProcessor(parallelFolder, 4).process();
+
+		assertEquals(2, sequential.size());
+		assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < sequential.size(); i++) {
+			assertEquals(sequential.get(i).getName(), parallel.get(i).getName());
+			assertEquals(contents(sequential.get(i)), contents(parallel.get(i)));
+		}
+	}
+
+	@Test
+	public void skippedExportKeepsCrawledLinks() throws IOException, ConfigurationException {
+		File targetFolder = tmp.newFolder("target");
+		File input = taggedSample();
+		try (ProbeCache cache = new ProbeCache(new File(targetFolder, "probes"), 1000, 1000)) {
+			LinkCrawler crawler = new LinkCrawler(new LinkProber(cache), cache, 6); // not started
+			LinkProber prober = new LinkProber(cache);
+			prober.setCacheOnly(true);
+
+			ExportState state = new ExportState(targetFolder);
+			LinkTester linkTester = new LinkTester(true, prober);
+			linkTester.setCrawler(crawler);
+			assertEquals(2, newProcessor(input, targetFolder, false, state, linkTester).process().size());
+			state.store();
+			Set<String> links = new HashSet(crawler.getLinks());
+			assertFalse(links.isEmpty());
+
+			// bookmarks unchanged
+			linkTester = new LinkTester(true, prober);
+			linkTester.setCrawler(crawler);
+			assertTrue(newProcessor(input, targetFolder, false, new ExportState(targetFolder), linkTester).process().isEmpty());
+			assertEquals(links, crawler.getLinks());
+		}
+	}
+
+	/* the sample with both folders tagged for export */
+	private File taggedSample() throws IOException {
+		String json = new String(Files.readAllBytes(SAMPLE.toPath()), StandardCharsets.UTF_8);
+		json = json.replace("\"Företag som hanterar pengar\"", "\"#bank#Banker;Företag som hanterar pengar\"");
+		json = json.replace("\"Företag som hanterar skador.-\"", "\"#insurance#Försäkring;Företag som hanterar skador\"");
+		File file = tmp.newFile();
+		Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private BookmarkProcessor newProcessor(File targetFolder, int parallelism) throws IOException, ConfigurationException {
+		final File input = taggedSample();
+		ExportState state = new ExportState(targetFolder);
+		return new BookmarkProcessor(BrowserType.CHROME, targetFolder, true, true, false, false, parallelism, state, new LinkTester(false)) {
+			@Override
+			protected BookmarkReader makeReader() {
+				return new ChromeReader(input, Mode.STREAMING);
+			}
+		};
+	}
+
+	private BookmarkProcessor newProcessor(File input, File targetFolder, boolean force, ExportState state, LinkTester linkTester) throws ConfigurationException {
+		return new BookmarkProcessor(BrowserType.CHROME, targetFolder, true, force, false, false, 1, state, linkTester) {
+			@Override
+			protected BookmarkReader makeReader() {
+				return new ChromeReader(input, Mode.STREAMING);
+			}
+		};
+	}
+
+	/* without the generation time */
+	private static String contents(File file) throws IOException {
+		String html = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		return html.replaceFirst("Generated by.*", "");
+	}
+
+}
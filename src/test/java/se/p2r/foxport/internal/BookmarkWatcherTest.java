@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Watch files in a temporary directory.
+ * 
+ * @author peer
+ *
+ */
+public class BookmarkWatcherTest {
+
+	private static final long DEBOUNCE = 300; // ms
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final AtomicInteger runs = new AtomicInteger();
+	private File dir;
+	private BookmarkWatcher testee;
+	private Thread watching;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = tmp.newFolder("profile");
+		testee = new BookmarkWatcher(DEBOUNCE);
+	}
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (watching != null) {
+			watching.interrupt();
+			watching.join(5000);
+		}
+	}
+
+	@Test
+	public void debounce() throws Exception {
+		testee.register(dir, file -> file.getName().equals("Bookmarks"));
+		start();
+
+		for (int i = 0; i < 5; i++) {
+			write("Bookmarks");
+			Thread.sleep(DEBOUNCE / 6);
+		}
+		awaitRuns(1);
+		Thread.sleep(2 * DEBOUNCE);
+		assertEquals(1, runs.get()); // one burst, one run
+	}
+
+	@Test
+	public void ignoreOtherFiles() throws Exception {
+		testee.register(dir, file -> file.getName().equals("Bookmarks"));
+		start();
+
+		write("History");
+		write("Cookies");
+		Thread.sleep(3 * DEBOUNCE);
+		assertEquals(0, runs.get());
+
+		write("Bookmarks");
+		awaitRuns(1);
+	}
+
+	@Test
+	public void sameDirectoryTwice() throws Exception {
+		testee.register(dir, file -> file.getName().equals("Bookmarks"));
+		testee.register(dir, file -> file.getName().equals("foxport.properties"));
+		start();
+
+		write("foxport.properties");
+		awaitRuns(1);
+		write("Bookmarks");
+		awaitRuns(2);
+	}
+
+	private void start() {
+		watching = new Thread(() -> {
+			try {
+				testee.watch(runs::incrementAndGet);
+			} catch (InterruptedException e) {
+				// done
+			}
+		}, "watcher");
+		watching.setDaemon(true);
+		watching.start();
+	}
+
+	private void write(String name) throws IOException {
+		Files.write(new File(dir, name).toPath(), String.valueOf(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void awaitRuns(int expected) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (runs.get() < expected && System.currentTimeMillis() < timeout) {
+			Thread.sleep(20);
+		}
+		assertEquals(expected, runs.get());
+	}
+
+}
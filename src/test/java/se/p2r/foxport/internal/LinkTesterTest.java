@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.compact.CompactBookmarkTree;
+import se.p2r.foxport.html.BookmarkStack;
+import se.p2r.foxport.net.LinkProber;
+import se.p2r.foxport.net.ProbeCache;
+import se.p2r.foxport.net.ProbeResult;
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * @author peer
+ *
+ */
+public class LinkTesterTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	/* fails every link, remembers what was probed */
+	private static class RecordingProber extends LinkProber {
+		private final List<String> probed = new CopyOnWriteArrayList();
+
+		RecordingProber() {
+			this(null);
+		}
+
+		RecordingProber(ProbeCache cache) {
+			super(cache);
+		}
+
+		@Override
+		protected ProbeResult doProbe(String uri, ProbeResult previous) {
+			probed.add(uri);
+			return new ProbeResult(Outcome.UNKNOWN_HOST, 0, null);
+		}
+	}
+
+	@Test
+	public void sameTargetIsProbedOnceAndReportedEverywhere() {
+		CompactBookmarkTree.Builder builder = new CompactBookmarkTree.Builder();
+		int root = builder.begin(-1);
+		int banks = builder.begin(root);
+		link(builder, banks, "Handelsbanken", "https://www.handelsbanken.se/sv/");
+		link(builder, banks, "Handelsbanken again", "HTTPS://WWW.Handelsbanken.se:443/sv/#top");
+		builder.end(banks, CompactBookmarkTree.CONTAINER, "Banker", "Banker", null, null, "bank");
+		int insurance = builder.begin(root);
+		link(builder, insurance, "Handelsbanken", "https://www.handelsbanken.se/sv/");
+		builder.end(insurance, CompactBookmarkTree.CONTAINER, "Insurance", "Insurance", null, null, "insurance");
+		builder.end(root, CompactBookmarkTree.CONTAINER, "root", "root", null, null, null);
+		List<? extends Bookmark> roots = builder.build().getRoot().getChildren();
+
+		RecordingProber prober = new RecordingProber();
+		LinkTester testee = new LinkTester(true, prober);
+		testee.probe(roots);
+		for (Bookmark container : roots) {
+			Stack<Bookmark> trail = new BookmarkStack(container);
+			for (Bookmark link : container.getChildren()) {
+				assertFalse(testee.test(link, trail));
+			}
+		}
+
+		assertEquals(Arrays.asList("https://www.handelsbanken.se/sv/"), prober.probed);
+		assertEquals(3, testee.getNumberOfErrors());
+		String report = testee.dump();
+		assertTrue(report, report.contains("Banker (2 link(s))"));
+		assertTrue(report, report.contains("Insurance (1 link(s))"));
+	}
+
+	@Test
+	public void reportedAfterFailuresInARow() {
+		CompactBookmarkTree.Builder builder = new CompactBookmarkTree.Builder();
+		int root = builder.begin(-1);
+		int banks = builder.begin(root);
+		link(builder, banks, "Handelsbanken", "https://www.handelsbanken.se/sv/");
+		builder.end(banks, CompactBookmarkTree.CONTAINER, "Banker", "Banker", null, null, "bank");
+		builder.end(root, CompactBookmarkTree.CONTAINER, "root", "root", null, null, null);
+		List<? extends Bookmark> roots = builder.build().getRoot().getChildren();
+		Bookmark container = roots.get(0);
+		Bookmark link = container.getChildren().get(0);
+
+		// results expire at once, every run probes again
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), 0, 0)) {
+			LinkTester first = new LinkTester(true, new RecordingProber(cache), 2);
+			first.probe(roots);
+			assertTrue(first.test(link, new BookmarkStack(container)));
+			assertEquals(0, first.getNumberOfErrors());
+			assertEquals(1, first.getNumberOfFailing());
+			assertTrue(first.dump(), first.dump().contains("<1 FAILING LINKS"));
+
+			LinkTester second = new LinkTester(true, new RecordingProber(cache), 2);
+			second.probe(roots);
+			assertFalse(second.test(link, new BookmarkStack(container)));
+			assertEquals(1, second.getNumberOfErrors());
+			assertEquals(0, second.getNumberOfFailing());
+		}
+	}
+
+	private static void link(CompactBookmarkTree.Builder builder, int parent, String name, String uri) {
+		int node = builder.begin(parent);
+		builder.end(node, CompactBookmarkTree.LINK, name, name, uri, null, null);
+	}
+
+}
@@ -0,0 +1,47 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Resolve hosts without internet access, ".invalid" never resolves.
+ *
+ * @author peer
+ */
+public class HostResolverTest {
+
+	@Test
+	public void resolveAll() {
+		HostResolver resolver = new HostResolver(4);
+		resolver.resolveAll(Arrays.asList("localhost", "nowhere.invalid", "NOWHERE.invalid"));
+		assertTrue(resolver.isKnown("localhost"));
+		assertFalse(resolver.isKnown("nowhere.invalid"));
+		assertFalse(resolver.isKnown("Nowhere.Invalid"));
+	}
+
+	@Test
+	public void resolveOnDemand() {
+		HostResolver resolver = new HostResolver(4);
+		assertTrue(resolver.isKnown("127.0.0.1"));
+		assertFalse(resolver.isKnown("elsewhere.invalid"));
+		assertTrue(resolver.isKnown(null));
+	}
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * @author peer
+ *
+ */
+public class HostSchedulerTest {
+
+	private static final ProbeResult OK = new ProbeResult(Outcome.OK, 200, null);
+	private static final ProbeResult TIMEOUT = new ProbeResult(Outcome.TIMEOUT, 408, null);
+
+	@Test
+	public void limitPerHost() throws InterruptedException {
+		HostScheduler testee = new HostScheduler(2, 0, 0);
+		testee.add("a1", "a");
+		testee.add("a2", "a");
+		testee.add("a3", "a");
+		testee.add("b1", "b");
+
+		assertEquals("a1", testee.next());
+		assertEquals("b1", testee.next());
+		assertEquals("a2", testee.next());
+		// a3 waits for a free slot on host a
+		testee.done("a1", OK);
+		assertEquals("a3", testee.next());
+		assertNull(testee.next());
+	}
+
+	@Test
+	public void spacing() throws InterruptedException {
+		HostScheduler testee = new HostScheduler(2, 200, 0);
+		testee.add("a1", "a");
+		testee.add("a2", "a");
+
+		long start = System.currentTimeMillis();
+		testee.next();
+		testee.next();
+		assertTrue(System.currentTimeMillis() - start >= 190);
+	}
+
+	@Test
+	public void stopAtDeadline() throws InterruptedException {
+		HostScheduler testee = new HostScheduler(2, 5000, 0);
+		testee.add("a1", "a");
+		testee.add("a2", "a");
+
+		long start = System.currentTimeMillis();
+		assertEquals("a1", testee.next(start + 200));
+		assertNull(testee.next(start + 200));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	@Test
+	public void breaker() throws InterruptedException {
+		HostScheduler testee = new HostScheduler(2, 0, 2);
+		for (String link : Arrays.asList("a1", "a2", "a3", "a4", "a5")) {
+			testee.add(link, "a");
+		}
+
+		assertEquals("a1", testee.next());
+		assertEquals("a2", testee.next());
+		assertEquals(Collections.emptyList(), testee.done("a1", TIMEOUT));
+		assertEquals("a3", testee.next());
+		assertEquals(Arrays.asList("a4", "a5"), testee.done("a2", TIMEOUT));
+		assertEquals(2, testee.getFailures("a3"));
+		// a probe in flight when the circuit opens completes
+		assertEquals(Collections.emptyList(), testee.done("a3", TIMEOUT));
+		assertNull(testee.next());
+	}
+
+	@Test
+	public void successResetsBreaker() throws InterruptedException {
+		HostScheduler testee = new HostScheduler(1, 0, 2);
+		for (String link : Arrays.asList("a1", "a2", "a3", "a4")) {
+			testee.add(link, "a");
+		}
+
+		testee.done(testee.next(), TIMEOUT);
+		testee.done(testee.next(), OK);
+		assertEquals(Collections.emptyList(), testee.done(testee.next(), TIMEOUT));
+		assertEquals("a4", testee.next());
+	}
+
+}
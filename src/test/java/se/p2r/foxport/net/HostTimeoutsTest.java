@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author peer
+ *
+ */
+public class HostTimeoutsTest {
+
+	@Test
+	public void defaultUntilSeen() {
+		HostTimeouts testee = new HostTimeouts(null, 3000, 500, 10000);
+		for (int i = 1; i < HostTimeouts.MIN_SAMPLES; i++) {
+			testee.record("p2r.se", 10, 100);
+		}
+		assertEquals(3000, testee.getConnectTimeout("p2r.se"));
+		assertEquals(3000, testee.getReadTimeout("p2r.se"));
+		assertEquals(3000, testee.getDeadline("p2r.se"));
+		assertEquals(3000, testee.getReadTimeout(null));
+	}
+
+	@Test
+	public void fastHostFailsFast() {
+		HostTimeouts testee = new HostTimeouts(null, 3000, 500, 10000);
+		for (int i = 0; i < 20; i++) {
+			testee.record("P2R.se", 10, 250);
+		}
+		assertEquals(500, testee.getConnectTimeout("p2r.se")); // 30 ms, raised to the lower bound
+		assertEquals(750, testee.getReadTimeout("p2r.se"));
+		assertEquals(1250, testee.getDeadline("p2r.se"));
+	}
+
+	@Test
+	public void slowHostGetsTime() {
+		HostTimeouts testee = new HostTimeouts(null, 3000, 500, 10000);
+		for (int i = 0; i < 20; i++) {
+			testee.record("slow.se", 100, 2500);
+		}
+		assertEquals(7500, testee.getReadTimeout("slow.se"));
+
+		for (int i = 0; i < 20; i++) {
+			testee.recordTimeout("slow.se", 7500);
+		}
+		assertEquals(10000, testee.getReadTimeout("slow.se")); // upper bound
+	}
+
+	@Test
+	public void slowerHostGetsLongerTimeout() {
+		HostTimeouts testee = new HostTimeouts(null, 3000, 500, 10000);
+		for (int i = 0; i < 1000; i++) {
+			testee.record("p2r.se", 10, 100);
+		}
+		assertEquals(500, testee.getReadTimeout("p2r.se"));
+
+		for (int i = 0; i < HostLatency.WINDOW / 2; i++) {
+			testee.record("p2r.se", 10, 2000);
+		}
+		assertTrue(testee.getReadTimeout("p2r.se") >= 6000); // the old samples have decayed
+	}
+
+	@Test
+	public void neverRespondingHostKeepsDefault() {
+		HostTimeouts testee = new HostTimeouts(null, 3000, 500, 10000);
+		for (int i = 0; i < 20; i++) {
+			testee.recordTimeout("dead.se", 3000);
+		}
+		assertEquals(3000, testee.getDeadline("dead.se"));
+	}
+
+	@Test
+	public void fixed() {
+		HostTimeouts testee = new HostTimeouts(2000);
+		for (int i = 0; i < 20; i++) {
+			testee.record("p2r.se", 10, 100);
+		}
+		assertEquals(2000, testee.getConnectTimeout("p2r.se"));
+		assertEquals(2000, testee.getDeadline("p2r.se"));
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+Copyright (c) 2018, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Not a proper unit test since it depends on brittle, external resources.
+ * Use primarily to test drive logic on specific URLs found using ordinary processing. 
+ * @author peer
+ *
+ */
+public class LinkConnectorTest {
+
+	private LinkConnector testee;
+
+	@Before
+	public void setUp() {
+		testee = new LinkConnector();
+	}
+
+	@Test
+	public void ok200() throws Exception {
+		expect(200, "http://p2r.se");
+		expect(200, "http://p2r.se/starters");
+		expect(200, "http://www.rollingstones.com"); // will give 403 unless user agent is set
+	}
+
+	@Test
+	public void ok200WithGET() throws Exception {
+		expect(200, "http://www.laget.se/sdg/");
+		expect(200, "http://bose.com/"); // temporary redirect is followed
+	}
+	
+	@Test
+	public void redirected300() throws Exception {
+		expect(301, "http://code.google.com/p/socialmusicdiscovery");
+	}
+
+	@Test
+	public void fail400() throws Exception {
+		expect(404, "http://p2r.se/dummy");
+		expect(408, "http://hotell.kelkoo.se/Error/PageNotFound?aspxerrorpath=/TrafficInspection/23ff9ee0-6711-11e8-abb1-d56650547a15");
+	}
+		
+	@Test
+	public void failWithTimeout() throws Exception {
+		testee = new LinkConnector(1);
+		expect(408, "http://p2r.se");
+	}
+
+	/* a local server that keeps sending headers, so the read timeout never fires */
+	@Test(timeout = 5000)
+	public void disconnectAtDeadline() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			Thread drip = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					OutputStream out = socket.getOutputStream();
+					out.write("HTTP/1.1 200 OK\r\n".getBytes(StandardCharsets.US_ASCII));
+					for (int i = 0; i < 100; i++) {
+						Thread.sleep(100);
+						out.write(("X-Drip-" + i + ": x\r\n").getBytes(StandardCharsets.US_ASCII));
+						out.flush();
+					}
+				} catch (IOException | InterruptedException e) {
+					// disconnected
+				}
+			});
+			drip.setDaemon(true);
+			drip.start();
+
+			testee = new LinkConnector(500);
+			long start = System.currentTimeMillis();
+			expect(408, "http://127.0.0.1:" + server.getLocalPort() + "/");
+
+			assertTrue(System.currentTimeMillis() - start < 2000);
+			assertEquals(1, testee.getCancelledRequests());
+			assertEquals(0, testee.getActiveRequests());
+			assertEquals(1, testee.getPeakActiveRequests());
+			assertEquals(1, LinkConnector.getTimerThreads());
+		}
+	}
+	
+	/* a local server that drips the first TLS record, so the handshake outlives the deadline */
+	@Test(timeout = 5000)
+	public void disconnectMidHandshake() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			Thread drip = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					OutputStream out = socket.getOutputStream();
+					out.write(new byte[] { 0x16, 0x03, 0x03, 0x10, 0x00 }); // handshake record, 4096 bytes
+					for (int i = 0; i < 100; i++) {
+						Thread.sleep(100);
+						out.write(0);
+						out.flush();
+					}
+				} catch (IOException | InterruptedException e) {
+					// disconnected
+				}
+			});
+			drip.setDaemon(true);
+			drip.start();
+
+			testee = new LinkConnector(500);
+			long start = System.currentTimeMillis();
+			expect(408, "https://127.0.0.1:" + server.getLocalPort() + "/");
+
+			assertTrue(System.currentTimeMillis() - start < 2000);
+			assertEquals(1, testee.getCancelledRequests());
+			assertEquals(0, testee.getActiveRequests());
+		}
+	}
+
+	/* a local keep-alive server that counts connections; HEAD is refused on /nohead */
+	@Test(timeout = 5000)
+	public void connectionIsReused() throws Exception {
+		AtomicInteger connections = new AtomicInteger();
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			Thread keepAlive = new Thread(() -> {
+				while (true) {
+					try (Socket socket = server.accept()) {
+						connections.incrementAndGet();
+						BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+						OutputStream out = socket.getOutputStream();
+						for (String request = in.readLine(); request != null; request = in.readLine()) {
+							while (!in.readLine().isEmpty()) {
+								// skip headers
+							}
+							String response = request.startsWith("HEAD /nohead") 
+									? "HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\n\r\n"
+									: request.startsWith("GET") ? "HTTP/1.1 206 Partial Content\r\nContent-Length: 1\r\n\r\nx"
+									: "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n";
+							out.write(response.getBytes(StandardCharsets.US_ASCII));
+							out.flush();
+						}
+					} catch (IOException e) {
+						return; // server closed
+					}
+				}
+			});
+			keepAlive.setDaemon(true);
+			keepAlive.start();
+
+			String base = "http://127.0.0.1:" + server.getLocalPort();
+			expect(200, base + "/a");
+			expect(206, base + "/nohead");
+			expect(200, base + "/b");
+			expect(206, base + "/nohead?again");
+
+			assertEquals(6, testee.getRequests());
+			assertEquals(1, connections.get());
+		}
+	}
+
+	private void expect(int expectedCode, String url) {
+		try {
+			URL u = new URL(url);
+			assertEquals(url, expectedCode, testee.connect(u));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+	}
+
+}
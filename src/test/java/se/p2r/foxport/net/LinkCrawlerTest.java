@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * Crawl links with a prober that does not touch the network.
+ * 
+ * @author peer
+ *
+ */
+public class LinkCrawlerTest {
+
+	private static final long TTL = 60 * 1000;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final List<String> probed = new CopyOnWriteArrayList();
+	private ProbeCache cache;
+	private LinkCrawler testee;
+
+	@Before
+	public void setUp() {
+		cache = new ProbeCache(new File(tmp.getRoot(), "probes"), TTL, TTL);
+		testee = new LinkCrawler(newProber(), cache, 600).start();
+	}
+
+	/* records the links probed, all OK */
+	private LinkProber newProber() {
+		LinkProber prober = new LinkProber(new LinkConnector(2000), 2, cache) {
+			@Override
+			protected ProbeResult doProbe(String link, ProbeResult previous) {
+				probed.add(link);
+				return new ProbeResult(Outcome.OK, 200, null);
+			}
+		};
+		prober.setHostLimits(2, 0, 0);
+		return prober;
+	}
+
+	@After
+	public void tearDown() {
+		testee.close();
+	}
+
+	@Test
+	public void crawlLinksNeverProbed() throws InterruptedException {
+		testee.setLinks(Arrays.asList("http://a.p2r.se/1", "http://a.p2r.se/2", "http://b.p2r.se/"));
+		awaitCrawled(3);
+
+		assertEquals(3, probed.size());
+		assertNotNull(cache.get("http://a.p2r.se/1"));
+		assertNotNull(cache.get("http://b.p2r.se/"));
+	}
+
+	@Test
+	public void refreshBeforeExpiry() throws InterruptedException {
+		long now = System.currentTimeMillis();
+		cache.put("http://p2r.se/expiring", new ProbeResult(Outcome.OK, 200, null, null, now - TTL * 95 / 100, 1));
+		cache.put("http://p2r.se/fresh", new ProbeResult(Outcome.OK, 200, null, null, now, 1));
+		testee.setLinks(Arrays.asList("http://p2r.se/expiring", "http://p2r.se/fresh"));
+		awaitCrawled(1);
+		Thread.sleep(200);
+
+		assertEquals(Arrays.asList("http://p2r.se/expiring"), probed);
+	}
+
+	@Test
+	public void rateLimited() throws InterruptedException {
+		testee.close();
+		cache = new ProbeCache(new File(tmp.getRoot(), "probes"), TTL, TTL);
+		testee = new LinkCrawler(newProber(), cache, 6).start(); // one link every 10 s
+		testee.setLinks(Arrays.asList("http://p2r.se/1", "http://p2r.se/2"));
+		awaitCrawled(1);
+		Thread.sleep(300);
+
+		assertEquals(1, probed.size());
+	}
+
+	private void awaitCrawled(int links) throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 5000;
+		while (testee.getCrawled() < links && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		assertEquals(links, testee.getCrawled());
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * @author peer
+ *
+ */
+public class LinkHealthTest {
+
+	@Test
+	public void streaks() {
+		LinkHealth testee = LinkHealth.of(Outcome.OK).with(Outcome.TIMEOUT).with(Outcome.UNKNOWN_HOST);
+		assertEquals(2, testee.getConsecutiveFailures());
+		assertEquals(0, testee.getConsecutiveSuccesses());
+		assertTrue(testee.hasFailed());
+
+		testee = testee.with(Outcome.MOVED).with(Outcome.OK);
+		assertEquals(0, testee.getConsecutiveFailures());
+		assertEquals(2, testee.getConsecutiveSuccesses());
+		assertEquals("OTHMO", testee.encode());
+	}
+
+	@Test
+	public void unverifiedIsNeitherGoodNorBad() {
+		LinkHealth testee = LinkHealth.of(Outcome.TIMEOUT).with(Outcome.UNVERIFIED);
+		assertEquals(0, testee.getConsecutiveFailures());
+		assertEquals(0, testee.getConsecutiveSuccesses());
+	}
+
+	@Test
+	public void keepsLatest() {
+		LinkHealth testee = LinkHealth.of(Outcome.TIMEOUT);
+		for (int i = 0; i < LinkHealth.MAX_HISTORY; i++) {
+			testee = testee.with(Outcome.OK);
+		}
+		assertEquals(LinkHealth.MAX_HISTORY, testee.size());
+		assertFalse(testee.hasFailed());
+		assertEquals(testee.encode(), LinkHealth.decode(testee.encode()).encode());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeDamaged() {
+		LinkHealth.decode("OO?");
+	}
+
+}
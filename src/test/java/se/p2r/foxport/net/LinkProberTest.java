@@ -0,0 +1,447 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * Probe links on a local HTTP server, no internet access needed.
+ * 
+ * @author peer
+ *
+ */
+public class LinkProberTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final List<String> requests = new CopyOnWriteArrayList();
+	private HttpServer server;
+	private String base;
+	private LinkProber testee;
+	private final ExecutorService handlers = Executors.newCachedThreadPool();
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ok", exchange -> {
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.createContext("/missing", exchange -> {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+		});
+		server.createContext("/etag", exchange -> {
+			requests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("If-None-Match"));
+			exchange.getResponseHeaders().set("ETag", "\"v1\"");
+			boolean unchanged = "\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+			exchange.sendResponseHeaders(unchanged ? 304 : 200, -1);
+			exchange.close();
+		});
+		server.createContext("/nohead", exchange -> {
+			requests.add(exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Range"));
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				exchange.sendResponseHeaders(405, -1);
+			} else {
+				exchange.sendResponseHeaders(206, 1);
+				exchange.getResponseBody().write('<');
+			}
+			exchange.close();
+		});
+		// /go/301/ok redirects to /ok with 301
+		server.createContext("/go/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			requests.add(path);
+			String[] parts = path.split("/", 4);
+			exchange.getResponseHeaders().set("Location", "/" + parts[3]);
+			exchange.sendResponseHeaders(Integer.parseInt(parts[2]), -1);
+			exchange.close();
+		});
+		server.createContext("/loop", exchange -> {
+			exchange.getResponseHeaders().set("Location", "/go/302/loop");
+			exchange.sendResponseHeaders(302, -1);
+			exchange.close();
+		});
+		server.createContext("/stall", exchange -> {
+			requests.add(exchange.getRequestMethod());
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				sleep(1500);
+				exchange.sendResponseHeaders(200, -1);
+			} else {
+				exchange.sendResponseHeaders(206, 1);
+				exchange.getResponseBody().write('<');
+			}
+			exchange.close();
+		});
+		server.createContext("/slow", exchange -> {
+			requests.add(exchange.getRequestURI().toString());
+			sleep(300);
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.setExecutor(handlers);
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		testee = new LinkProber(new LinkConnector(2000), 4);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Test
+	public void probeAll() {
+		String ok = base + "/ok";
+		String missing = base + "/missing";
+		String badURI = "http://bad uri";
+		String unknownHost = "https://unknown.invalid/";
+
+		Map<String, ProbeResult> results = testee.probeAll(Arrays.asList(ok, missing, badURI, unknownHost));
+
+		assertEquals(4, results.size());
+		assertEquals(Outcome.OK, results.get(ok).getOutcome());
+		assertEquals(200, results.get(ok).getResponseCode());
+		assertEquals(Outcome.UNRESOLVED, results.get(missing).getOutcome());
+		assertEquals(404, results.get(missing).getResponseCode());
+		assertEquals(Outcome.BAD_URI, results.get(badURI).getOutcome());
+		assertEquals(Outcome.UNKNOWN_HOST, results.get(unknownHost).getOutcome());
+	}
+
+	@Test
+	public void revalidateWithETag() {
+		String link = base + "/etag";
+		// results expire at once
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), 0, 0)) {
+			testee = new LinkProber(new LinkConnector(2000), 4, cache);
+			ProbeResult first = testee.probe(link);
+			ProbeResult second = testee.probe(link);
+
+			assertEquals(200, first.getResponseCode());
+			assertEquals("\"v1\"", first.getETag());
+			assertEquals(Outcome.OK, second.getOutcome());
+			assertEquals(304, second.getResponseCode());
+			assertEquals("\"v1\"", second.getETag());
+			assertEquals(Arrays.asList("HEAD null", "HEAD \"v1\""), requests);
+		}
+	}
+
+	@Test
+	public void getFallbackIsRanged() {
+		ProbeResult result = testee.probe(base + "/nohead");
+
+		assertEquals(Outcome.OK, result.getOutcome());
+		assertEquals(206, result.getResponseCode());
+		assertEquals(Arrays.asList("HEAD null", "GET bytes=0-0"), requests);
+	}
+
+	@Test
+	public void httpsIsProbed() throws IOException {
+		// not a TLS server: the handshake fails, so the link cannot be verified (and is kept)
+		try (ServerSocket plain = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+			Thread server = new Thread(() -> {
+				try (Socket socket = plain.accept()) {
+					socket.getInputStream().read(new byte[1024]);
+					socket.getOutputStream().write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					socket.shutdownOutput();
+					while (socket.getInputStream().read() >= 0) {
+						// until the client gives up
+					}
+				} catch (IOException e) {
+					// client gone
+				}
+			});
+			server.setDaemon(true);
+			server.start();
+
+			ProbeResult result = testee.probe("https://127.0.0.1:" + plain.getLocalPort() + "/ok");
+			assertEquals(result.toString(), Outcome.UNVERIFIED, result.getOutcome());
+		}
+	}
+
+	@Test
+	public void permanentRedirects() {
+		ProbeResult result = testee.probe(base + "/go/301/go/308/ok");
+
+		assertEquals(Outcome.MOVED, result.getOutcome());
+		assertEquals(301, result.getResponseCode());
+		assertEquals(base + "/ok", result.getFinalUrl());
+	}
+
+	@Test
+	public void temporaryRedirect() {
+		ProbeResult result = testee.probe(base + "/go/301/go/302/ok");
+
+		assertEquals(Outcome.OK, result.getOutcome());
+		assertEquals(200, result.getResponseCode());
+		assertEquals(base + "/ok", result.getFinalUrl());
+	}
+
+	@Test
+	public void redirectToMissing() {
+		ProbeResult result = testee.probe(base + "/go/301/missing");
+
+		assertEquals(Outcome.UNRESOLVED, result.getOutcome());
+		assertEquals(404, result.getResponseCode());
+	}
+
+	@Test
+	public void redirectLoop() {
+		ProbeResult result = testee.probe(base + "/loop");
+
+		assertEquals(Outcome.UNRESOLVED, result.getOutcome());
+		assertTrue(result.getDetail(), result.getDetail().startsWith("redirect loop"));
+	}
+
+	@Test
+	public void tooManyRedirects() {
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i <= RedirectResolver.MAX_HOPS; i++) {
+			path.append("/go/302");
+		}
+		ProbeResult result = testee.probe(base + path + "/ok");
+
+		assertEquals(Outcome.UNRESOLVED, result.getOutcome());
+		assertEquals(RedirectResolver.MAX_HOPS + 1, requests.size());
+	}
+
+	@Test
+	public void maxRedirects() {
+		StringBuilder path = new StringBuilder();
+		for (int i = 0; i < RedirectResolver.MAX_HOPS; i++) {
+			path.append("/go/302");
+		}
+		ProbeResult result = testee.probe(base + path + "/ok");
+
+		assertEquals(Outcome.OK, result.getOutcome());
+		assertEquals(200, result.getResponseCode());
+		assertEquals(RedirectResolver.MAX_HOPS, requests.size());
+	}
+
+	@Test
+	public void redirectsAreShared() {
+		testee.probe(base + "/go/301/go/301/ok");
+		testee.probe(base + "/go/302/go/301/ok");
+
+		// the second chain joins the first at /go/301/ok
+		assertEquals(Arrays.asList("/go/301/go/301/ok", "/go/301/ok", "/go/302/go/301/ok"), requests);
+	}
+
+	@Test
+	public void hedgeSlowHead() {
+		LinkConnector connector = new LinkConnector(3000, 90);
+		testee = new LinkProber(connector, 4);
+		for (int i = 0; i < 20; i++) {
+			testee.probe(base + "/ok");
+		}
+
+		long start = System.currentTimeMillis();
+		ProbeResult result = testee.probe(base + "/stall");
+
+		assertEquals(Outcome.OK, result.getOutcome());
+		assertEquals(206, result.getResponseCode());
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(1, connector.getHedgedRequests());
+		assertEquals(1, connector.getHedgeWins());
+		assertEquals(Arrays.asList("HEAD", "GET"), requests);
+	}
+
+	@Test
+	public void hedgePoolIsBounded() {
+		LinkConnector connector = new LinkConnector(3000, 90);
+		int links = 3 * LinkConnector.HEDGE_THREADS;
+		testee = new LinkProber(connector, links);
+		testee.setHostLimits(links, 0, links);
+		for (int i = 0; i < 20; i++) {
+			testee.probe(base + "/ok");
+		}
+		List<String> slow = new ArrayList();
+		for (int i = 0; i < links; i++) {
+			slow.add(base + "/slow?" + i);
+		}
+
+		Map<String, ProbeResult> results = testee.probeAll(slow);
+
+		assertEquals(links, results.size());
+		for (ProbeResult result : results.values()) {
+			assertEquals(Outcome.OK, result.getOutcome());
+		}
+		assertTrue(connector.getSkippedHedges() > 0);
+		assertEquals(links, connector.getHedgedRequests() + connector.getSkippedHedges());
+	}
+
+	@Test
+	public void noHedgeForFastHead() {
+		LinkConnector connector = new LinkConnector(3000, 90);
+		testee = new LinkProber(connector, 4);
+		for (int i = 0; i < 30; i++) {
+			testee.probe(base + "/ok");
+		}
+		assertEquals(0, connector.getHedgedRequests());
+		assertEquals(30, connector.getRequests());
+	}
+
+	@Test
+	public void breakerSkipsHost() {
+		List<String> links = new ArrayList();
+		for (int i = 0; i < 10; i++) {
+			links.add(base + "/slow?" + i);
+		}
+		testee = new LinkProber(new LinkConnector(100), 4);
+		testee.setHostLimits(2, 0, 3);
+
+		Map<String, ProbeResult> results = testee.probeAll(links);
+
+		assertEquals(10, results.size());
+		long skipped = results.values().stream().filter(ProbeResult::isShortCircuited).count();
+		assertTrue(skipped >= 6);
+		assertTrue(requests.size() <= 10 - skipped);
+		for (ProbeResult result : results.values()) {
+			assertEquals(Outcome.TIMEOUT, result.getOutcome());
+		}
+	}
+
+	@Test
+	public void breakerSkipsHostThroughQueue() {
+		List<String> links = new ArrayList();
+		for (int i = 0; i < 10; i++) {
+			links.add(base + "/slow?" + i);
+		}
+		testee = new LinkProber(new LinkConnector(100), 4);
+		testee.setHostLimits(2, 0, 3);
+		testee.setQueue(new ProbeQueue(new File(tmp.getRoot(), "queue")));
+
+		Map<String, ProbeResult> results = testee.probeAll(links);
+
+		assertEquals(10, results.size());
+		long skipped = results.values().stream().filter(ProbeResult::isShortCircuited).count();
+		assertTrue(skipped >= 6);
+		for (ProbeResult result : results.values()) {
+			assertEquals(Outcome.TIMEOUT, result.getOutcome());
+			assertFalse(result.isDeferred());
+		}
+	}
+
+	@Test
+	public void budget() {
+		List<String> links = new ArrayList();
+		for (int i = 0; i < 8; i++) {
+			links.add(base + "/slow?" + i);
+		}
+		testee.setHostLimits(2, 0, 0);
+		testee.setBudget(500);
+
+		long start = System.currentTimeMillis();
+		Map<String, ProbeResult> results = testee.probeAll(links);
+
+		assertTrue(System.currentTimeMillis() - start < 1000);
+		assertEquals(8, results.size());
+		long deferred = results.values().stream().filter(ProbeResult::isDeferred).count();
+		assertTrue(deferred >= 4);
+		for (ProbeResult result : results.values()) {
+			assertEquals(Outcome.OK, result.getOutcome());
+		}
+	}
+
+	@Test
+	public void priority() {
+		long now = System.currentTimeMillis();
+		List<String> probed = new CopyOnWriteArrayList();
+		// results expire at once
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), 0, 0)) {
+			cache.put("http://p2r.se/old", new ProbeResult(Outcome.OK, 200, null, null, now - 3 * 60 * 60 * 1000L, 1));
+			cache.put("http://p2r.se/recent", new ProbeResult(Outcome.OK, 200, null, null, now - 60 * 60 * 1000L, 1));
+			testee = new LinkProber(new LinkConnector(2000), 1, cache) {
+				@Override
+				protected ProbeResult doProbe(String link, ProbeResult previous) {
+					probed.add(link);
+					return new ProbeResult(Outcome.OK, 200, null);
+				}
+			};
+			testee.setHostLimits(1, 0, 0);
+			testee.probeAll(Arrays.asList("http://p2r.se/recent", "http://p2r.se/old", "http://p2r.se/new"));
+		}
+		assertEquals(Arrays.asList("http://p2r.se/new", "http://p2r.se/old", "http://p2r.se/recent"), probed);
+	}
+
+	@Test
+	public void cacheOnly() {
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), 0, 0)) {
+			cache.put(base + "/missing", new ProbeResult(Outcome.UNRESOLVED, 404, null, null, 1000, 1));
+			testee = new LinkProber(new LinkConnector(2000), 2, cache);
+			testee.setCacheOnly(true);
+			Map<String, ProbeResult> results = testee.probeAll(Arrays.asList(base + "/missing", base + "/etag"));
+
+			assertEquals(Outcome.UNRESOLVED, results.get(base + "/missing").getOutcome()); // expired, but the latest known
+			assertTrue(results.get(base + "/etag").isDeferred());
+			assertTrue(requests.isEmpty());
+		}
+	}
+
+	@Test
+	public void probeThroughQueue() {
+		File dir = new File(tmp.getRoot(), "queue");
+		testee.setQueue(new ProbeQueue(dir));
+		String local = base.replace("127.0.0.1", "localhost");
+		Map<String, ProbeResult> results = testee.probeAll(Arrays.asList(base + "/ok", base + "/missing", local + "/ok"));
+
+		assertEquals(Outcome.OK, results.get(base + "/ok").getOutcome());
+		assertEquals(Outcome.UNRESOLVED, results.get(base + "/missing").getOutcome());
+		assertEquals(Outcome.OK, results.get(local + "/ok").getOutcome());
+		assertEquals(0, dir.list().length); // round removed
+	}
+
+	@Test
+	public void probeNothing() {
+		assertTrue(testee.probeAll(Arrays.asList()).isEmpty());
+	}
+
+}
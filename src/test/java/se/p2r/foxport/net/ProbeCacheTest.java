@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * @author peer
+ *
+ */
+public class ProbeCacheTest {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final String LINK = "https://p2r.se/";
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void resultsAreKeptBetweenRuns() throws IOException {
+		File file = new File(tmp.getRoot(), "probes");
+		long now = System.currentTimeMillis();
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			cache.put(LINK, new ProbeResult(Outcome.OK, 200, null, "https://p2r.se/start", now, 42));
+		}
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			ProbeResult result = cache.get(LINK);
+			assertNotNull(result);
+			assertEquals(Outcome.OK, result.getOutcome());
+			assertEquals(200, result.getResponseCode());
+			assertEquals("https://p2r.se/start", result.getFinalUrl());
+			assertEquals(now, result.getTime());
+			assertEquals(42, result.getLatency());
+		}
+	}
+
+	@Test
+	public void hostLatencyIsKeptBetweenRuns() throws IOException {
+		File file = new File(tmp.getRoot(), "probes");
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			cache.getHostLatency("p2r.se").record(20, 300);
+			cache.getHostLatency("p2r.se").record(20, 300);
+			cache.getHostLatency("unknown.se"); // nothing recorded
+		}
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			HostLatency latency = cache.getHostLatency("p2r.se");
+			assertEquals(2, latency.getConnect().getCount());
+			assertEquals(300, latency.getFirstByte().getMax());
+			assertFalse(latency.isChanged());
+		}
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, lines.size()); // header and p2r.se
+	}
+
+	@Test
+	public void stableLinksBackOff() throws IOException {
+		long threeHoursAgo = System.currentTimeMillis() - 3 * HOUR;
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), HOUR, HOUR / 6)) {
+			ProbeResult ok = new ProbeResult(Outcome.OK, 200, null, null, threeHoursAgo, 1);
+			cache.put(LINK, ok);
+			assertNull(cache.get(LINK)); // 1h
+			cache.put(LINK, ok);
+			assertNull(cache.get(LINK)); // 2h
+			cache.put(LINK, ok);
+			assertNotNull(cache.get(LINK)); // 4h
+			assertEquals("OOO", cache.getHealth(LINK).encode());
+		}
+	}
+
+	@Test
+	public void flappingLinksAreProbedOften() throws IOException {
+		long now = System.currentTimeMillis();
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), HOUR, HOUR / 6)) {
+			cache.put(LINK, new ProbeResult(Outcome.TIMEOUT, 408, null, null, now - HOUR, 1));
+			cache.put(LINK, new ProbeResult(Outcome.OK, 200, null, null, now - HOUR / 3, 1));
+			assertNull(cache.get(LINK)); // 10 minutes, not 1h
+		}
+	}
+
+	@Test
+	public void historyIsKeptBetweenRuns() throws IOException {
+		File file = new File(tmp.getRoot(), "probes");
+		long now = System.currentTimeMillis();
+		try (ProbeCache cache = new ProbeCache(file, HOUR, HOUR)) {
+			cache.put(LINK, new ProbeResult(Outcome.OK, 200, null, null, now, 1));
+			cache.put(LINK, new ProbeResult(Outcome.TIMEOUT, 408, null, null, now, 1));
+		}
+		try (ProbeCache cache = new ProbeCache(file, HOUR, HOUR)) {
+			assertEquals("OT", cache.getHealth(LINK).encode());
+			assertEquals(1, cache.getHealth(LINK).getConsecutiveFailures());
+		}
+	}
+
+	@Test
+	public void errorsExpireSooner() throws IOException {
+		long twoHoursAgo = System.currentTimeMillis() - 2 * HOUR;
+		try (ProbeCache cache = new ProbeCache(new File(tmp.getRoot(), "probes"), 24 * HOUR, HOUR)) {
+			cache.put(LINK, new ProbeResult(Outcome.OK, 200, null, null, twoHoursAgo, 1));
+			cache.put("http://p2r.se/dummy", new ProbeResult(Outcome.UNRESOLVED, 404, null, null, twoHoursAgo, 1));
+			assertNotNull(cache.get(LINK));
+			assertNull(cache.get("http://p2r.se/dummy"));
+			assertNull(cache.get("http://unknown.se/"));
+		}
+	}
+
+	@Test
+	public void damagedLineIsSkippedAndRewritten() throws IOException {
+		File file = new File(tmp.getRoot(), "probes");
+		long now = System.currentTimeMillis();
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			cache.put(LINK, new ProbeResult(Outcome.OK, 200, null, null, now, 1));
+		}
+		// crashed while writing
+		Files.write(file.toPath(), (now + "\t3\tUNRESOL").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			assertEquals(1, cache.size());
+			assertNotNull(cache.get(LINK));
+		}
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertEquals(2, lines.size());
+	}
+
+	@Test
+	public void logIsCompacted() throws IOException {
+		File file = new File(tmp.getRoot(), "probes");
+		long now = System.currentTimeMillis();
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			for (int i = 0; i < 3000; i++) {
+				cache.put("http://p2r.se/" + (i % 10), new ProbeResult(Outcome.OK, 200, "line\tbreak\n" + i, null, now, i));
+			}
+			assertEquals(10, cache.size());
+		}
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		assertTrue(lines.size() + " lines", lines.size() <= 1001);
+
+		try (ProbeCache cache = new ProbeCache(file, 24 * HOUR, HOUR)) {
+			assertEquals(10, cache.size());
+			assertEquals(2999, cache.get("http://p2r.se/9").getLatency());
+			assertEquals("line break 2999", cache.get("http://p2r.se/9").getDetail());
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.net;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.net.ProbeQueue.Partition;
+import se.p2r.foxport.net.ProbeResult.Outcome;
+
+/**
+ * @author peer
+ *
+ */
+public class ProbeQueueTest {
+
+	private static final List<String> LINKS = Arrays.asList(
+			"http://a.p2r.se/1", "http://a.p2r.se/2", "http://A.p2r.se/3", 
+			"http://b.p2r.se/1", "http://c.p2r.se/1", "http://c.p2r.se/2", "bad uri");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private ProbeQueue testee;
+
+	@Before
+	public void setUp() {
+		testee = new ProbeQueue(new File(tmp.getRoot(), "queue"), 4);
+	}
+
+	@Test
+	public void partitionByHost() throws IOException {
+		File round = testee.submit(LINKS);
+		assertEquals(Arrays.asList(round), testee.getRounds());
+
+		List<String> claimed = new ArrayList();
+		Map<String, List<String>> partitionOfHost = new HashMap();
+		Partition partition;
+		while ((partition = testee.claim(round)) != null) {
+			List<String> links = partition.getLinks();
+			for (String link : links) {
+				String host = String.valueOf(LinkProber.hostOf(link)).toLowerCase();
+				List<String> first = partitionOfHost.putIfAbsent(host, links);
+				assertTrue(first == null || first == links); // all links of a host in one partition
+			}
+			claimed.addAll(links);
+			partition.done(Collections.emptyMap());
+		}
+		assertEquals(LINKS.size(), claimed.size());
+		assertTrue(claimed.containsAll(LINKS));
+		assertTrue(testee.isDone(round));
+	}
+
+	@Test
+	public void claimedOnce() throws IOException {
+		File round = testee.submit(Arrays.asList("http://a.p2r.se/1"));
+		Partition partition = testee.claim(round);
+		assertNotNull(partition);
+		assertNull(testee.claim(round));
+
+		partition.close(); // released, not done
+		assertFalse(testee.isDone(round));
+		partition = testee.claim(round);
+		assertNotNull(partition);
+		partition.done(Collections.emptyMap());
+		assertNull(testee.claim(round));
+		assertTrue(testee.isDone(round));
+	}
+
+	@Test
+	public void collectLatest() throws IOException {
+		File round = testee.submit(LINKS);
+		try (ProbeCache one = new ProbeCache(new File(round, "one" + ProbeQueue.RESULTS), 1000, 1000);
+				ProbeCache two = new ProbeCache(new File(round, "two" + ProbeQueue.RESULTS), 1000, 1000)) {
+			one.put("http://a.p2r.se/1", new ProbeResult(Outcome.TIMEOUT, 0, null, null, 1000, 1));
+			two.put("http://a.p2r.se/1", new ProbeResult(Outcome.OK, 200, null, null, 2000, 1));
+			one.put("http://b.p2r.se/1", new ProbeResult(Outcome.OK, 200, null, null, 1000, 1));
+		}
+
+		Map<String, ProbeResult> results = testee.collect(round);
+		assertEquals(2, results.size());
+		assertEquals(Outcome.OK, results.get("http://a.p2r.se/1").getOutcome());
+		assertEquals(Outcome.OK, results.get("http://b.p2r.se/1").getOutcome());
+
+		Partition partition;
+		while ((partition = testee.claim(round)) != null) {
+			partition.done(Collections.singletonMap("http://c.p2r.se/1", ProbeResult.shortCircuited("c.p2r.se", 3)));
+		}
+		results = testee.collect(round);
+		assertEquals(3, results.size());
+		assertTrue(results.get("http://c.p2r.se/1").isShortCircuited());
+		assertEquals(Outcome.TIMEOUT, results.get("http://c.p2r.se/1").getOutcome());
+		assertFalse(results.get("http://a.p2r.se/1").isShortCircuited()); // probed beats short circuited
+
+		testee.remove(round);
+		assertFalse(round.exists());
+		assertTrue(testee.getRounds().isEmpty());
+	}
+
+}
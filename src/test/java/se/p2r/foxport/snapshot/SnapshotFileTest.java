@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.snapshot;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.BookmarkReader;
+import se.p2r.foxport.BookmarkReader.Mode;
+import se.p2r.foxport.chrome.ChromeReader;
+import se.p2r.foxport.firefox.FirefoxReader;
+
+/**
+ * Round trip parsed trees through a snapshot.
+ * 
+ * @author peer
+ *
+ */
+public class SnapshotFileTest {
+
+	private static final File DATA = new File("src/test/data");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void roundTripChrome() throws IOException {
+		File source = copy("ChromeBookmarksSample-WithDescriptions.json");
+		roundTrip(source, new ChromeReader(source, Mode.STREAMING).load());
+	}
+
+	@Test
+	public void roundTripFirefox() throws IOException {
+		File source = copy("bookmarks-2018-04-10.json");
+		roundTrip(source, new FirefoxReader(source).load());
+	}
+
+	@Test
+	public void staleWhenSourceChanges() throws IOException {
+		File source = copy("ChromeBookmarksSample-plain.json");
+		SnapshotFile snapshot = new SnapshotFile(tmp.newFile("snapshot"));
+		snapshot.write(source, new ChromeReader(source, Mode.STREAMING).load());
+		assertNotNull(snapshot.read(source));
+
+		long lastModified = source.lastModified();
+		byte[] contents = Files.readAllBytes(source.toPath());
+		contents[contents.length / 2] ^= 1; // same size, same time, different contents
+		Files.write(source.toPath(), contents);
+		source.setLastModified(lastModified);
+		assertNull(snapshot.read(source));
+	}
+
+	@Test
+	public void staleWhenSourceChangesWhileParsing() throws IOException {
+		File source = copy("ChromeBookmarksSample-plain.json");
+		SnapshotFile snapshot = new SnapshotFile(tmp.newFile("snapshot"));
+		SnapshotFile.Fingerprint fingerprint = SnapshotFile.Fingerprint.of(source);
+		Bookmark root = new ChromeReader(source, Mode.STREAMING).load();
+		change(source); // saved by the browser after it was parsed
+		snapshot.write(fingerprint, root);
+
+		assertNull(snapshot.read(source));
+	}
+
+	@Test
+	public void noSnapshotWhenSourceChangesWhileLoading() throws IOException {
+		File source = copy("ChromeBookmarksSample-plain.json");
+		File snapshotFile = new File(tmp.getRoot(), "snapshot");
+		ChromeReader chrome = new ChromeReader(source, Mode.STREAMING);
+		BookmarkReader changing = new BookmarkReader() {
+			@Override
+			public Bookmark load() {
+				Bookmark root = chrome.load();
+				try {
+					change(source);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return root;
+			}
+
+			@Override
+			public Bookmark load(Predicate<? super Bookmark> rootFilter) {
+				return load();
+			}
+
+			@Override
+			public long getTimestamp() {
+				return chrome.getTimestamp();
+			}
+
+			@Override
+			public String getContentKey() {
+				return chrome.getContentKey();
+			}
+
+			@Override
+			public File getInputFile() {
+				return source;
+			}
+		};
+		assertNotNull(new SnapshotReader(changing, snapshotFile).load());
+
+		assertNull(new SnapshotFile(snapshotFile).read(source));
+	}
+
+	/* new contents, new time */
+	private static void change(File source) throws IOException {
+		long lastModified = source.lastModified();
+		byte[] contents = Files.readAllBytes(source.toPath());
+		contents[contents.length / 2] ^= 1;
+		Files.write(source.toPath(), contents);
+		source.setLastModified(lastModified + 2000);
+	}
+
+	private void roundTrip(File source, Bookmark expected) throws IOException {
+		SnapshotFile snapshot = new SnapshotFile(tmp.newFile("snapshot"));
+		snapshot.write(source, expected);
+		assertSame(expected, snapshot.read(source));
+	}
+
+	private File copy(String name) throws IOException {
+		File result = new File(tmp.getRoot(), name);
+		Files.copy(new File(DATA, name).toPath(), result.toPath());
+		return result;
+	}
+
+	private static void assertSame(Bookmark expected, Bookmark actual) {
+		String msg = String.valueOf(expected);
+		assertEquals(msg, expected.getName(), actual.getName());
+		assertEquals(msg, expected.getTitle(), actual.getTitle());
+		assertEquals(msg, expected.getDescription(), actual.getDescription());
+		assertEquals(msg, expected.getExportId(), actual.getExportId());
+		assertEquals(msg, expected.isLink(), actual.isLink());
+		assertEquals(msg, expected.isContainer(), actual.isContainer());
+		assertEquals(msg, expected.hasChildren(), actual.hasChildren());
+		if (expected.isLink()) {
+			assertEquals(msg, expected.getUri(), actual.getUri());
+		}
+
+		List<? extends Bookmark> expectedChildren = expected.getChildren();
+		List<? extends Bookmark> actualChildren = actual.getChildren();
+		assertEquals(msg, expectedChildren.size(), actualChildren.size());
+		for (int i = 0; i < expectedChildren.size(); i++) {
+			assertSame(expectedChildren.get(i), actualChildren.get(i));
+		}
+	}
+
+}
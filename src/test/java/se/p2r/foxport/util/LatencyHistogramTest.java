@@ -0,0 +1,103 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author peer
+ *
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram testee = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			testee.record(i);
+		}
+
+		assertEquals(1000, testee.getCount());
+		assertEquals(1000, testee.getMax());
+		assertWithin(500, testee.getPercentile(50));
+		assertWithin(990, testee.getPercentile(99));
+		assertEquals(1000, testee.getPercentile(100));
+	}
+
+	@Test
+	public void tail() {
+		LatencyHistogram testee = new LatencyHistogram();
+		for (int i = 0; i < 98; i++) {
+			testee.record(10);
+		}
+		testee.record(3000);
+		testee.record(3000);
+
+		assertEquals(10, testee.getPercentile(90));
+		assertWithin(3000, testee.getPercentile(99));
+	}
+
+	@Test
+	public void decay() {
+		LatencyHistogram testee = new LatencyHistogram();
+		for (int i = 0; i < 90; i++) {
+			testee.record(10);
+		}
+		testee.decay();
+		assertEquals(45, testee.getCount());
+		for (int i = 0; i < 10; i++) {
+			testee.record(3000);
+		}
+
+		assertEquals(55, testee.getCount());
+		assertWithin(3000, testee.getPercentile(90));
+		assertEquals(3000, testee.getMax());
+	}
+
+	@Test
+	public void empty() {
+		LatencyHistogram testee = new LatencyHistogram();
+		assertEquals(0, testee.getPercentile(99));
+		assertEquals("p50 0 ms, p90 0 ms, p99 0 ms, max 0 ms", testee.toString());
+	}
+
+	@Test
+	public void encodeDecode() {
+		LatencyHistogram testee = new LatencyHistogram();
+		testee.record(3);
+		testee.record(3);
+		testee.record(250);
+
+		LatencyHistogram copy = LatencyHistogram.decode(testee.encode());
+		assertEquals(3, copy.getCount());
+		assertEquals(250, copy.getMax());
+		assertEquals(testee.toString(), copy.toString());
+		assertEquals("0", new LatencyHistogram().encode());
+		assertEquals(0, LatencyHistogram.decode("0").getCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void decodeDamaged() {
+		LatencyHistogram.decode("250;3:2,99999:1");
+	}
+
+	private static void assertWithin(long expected, long actual) {
+		assertTrue(expected + " ~ " + actual, actual >= expected && actual <= expected * 5 / 4);
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.p2r.foxport.Bookmark;
+import se.p2r.foxport.compact.CompactBookmarkTree;
+
+/**
+ * Verify that a subtree hash follows the subtree and nothing else.
+ * 
+ * @author peer
+ *
+ */
+public class SubtreeHashTest {
+
+	@Test
+	public void sameTreeSameHash() {
+		assertArrayEquals(SubtreeHash.of(tree("a", "b", "x")), SubtreeHash.of(tree("a", "b", "x")));
+	}
+
+	@Test
+	public void changedLinkChangesAncestorsOnly() {
+		Bookmark before = tree("a", "b", "x");
+		Bookmark after = tree("a", "b", "y");
+		assertNotEquals(SubtreeHash.of(before, "tree"), SubtreeHash.of(after, "tree"));
+		assertArrayEquals(SubtreeHash.of(before.getChildren().get(0)), SubtreeHash.of(after.getChildren().get(0)));
+		assertNotEquals(SubtreeHash.of(before.getChildren().get(1), "tree"), SubtreeHash.of(after.getChildren().get(1), "tree"));
+	}
+
+	@Test
+	public void orderAndContextMatter() {
+		assertNotEquals(SubtreeHash.of(tree("a", "b", "x"), "tree"), SubtreeHash.of(tree("b", "a", "x"), "tree"));
+		assertNotEquals(SubtreeHash.of(tree("a", "b", "x"), "tree"), SubtreeHash.of(tree("a", "b", "x"), "list"));
+	}
+
+	/* root with two folders, each with one link; the second link points at the supplied host */
+	private static Bookmark tree(String first, String second, String host) {
+		CompactBookmarkTree.Builder builder = new CompactBookmarkTree.Builder();
+		int root = builder.begin(-1);
+		folder(builder, root, first, "www.example.com");
+		folder(builder, root, second, host);
+		builder.end(root, CompactBookmarkTree.CONTAINER, "root", "root", null, null, null);
+		return builder.build().getRoot();
+	}
+
+	private static void folder(CompactBookmarkTree.Builder builder, int parent, String name, String host) {
+		int folder = builder.begin(parent);
+		int link = builder.begin(folder);
+		builder.end(link, CompactBookmarkTree.LINK, "link", "link", "http://" + host + "/", null, null);
+		builder.end(folder, CompactBookmarkTree.CONTAINER, name, name, null, "#" + name + "#", name);
+	}
+
+}
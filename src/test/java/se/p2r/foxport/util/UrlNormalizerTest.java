@@ -0,0 +1,60 @@
+/*
+Copyright (c) 2014, Peer Törngren
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the p2r-foxport project nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+*/
+package se.p2r.foxport.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author peer
+ *
+ */
+public class UrlNormalizerTest {
+
+	@Test
+	public void schemeAndHostAreLowercased() {
+		assertEquals("https://www.p2r.se/Links?Q=A", UrlNormalizer.normalize("HTTPS://WWW.P2R.se/Links?Q=A"));
+	}
+
+	@Test
+	public void defaultPortIsRemoved() {
+		assertEquals("http://p2r.se/a", UrlNormalizer.normalize("http://p2r.se:80/a"));
+		assertEquals("https://p2r.se/a", UrlNormalizer.normalize("https://p2r.se:443/a"));
+		assertEquals("https://p2r.se:8443/a", UrlNormalizer.normalize("https://p2r.se:8443/a"));
+	}
+
+	@Test
+	public void fragmentIsStripped() {
+		assertEquals("http://p2r.se/a?b=c", UrlNormalizer.normalize("http://p2r.se/a?b=c#top"));
+	}
+
+	@Test
+	public void emptyPathIsRoot() {
+		assertEquals("http://p2r.se/", UrlNormalizer.normalize("http://p2r.se"));
+		assertEquals(UrlNormalizer.normalize("http://p2r.se/"), UrlNormalizer.normalize("HTTP://p2r.se:80#x"));
+	}
+
+	@Test
+	public void otherLinksAreKept() {
+		assertEquals("http://bad uri", UrlNormalizer.normalize("http://bad uri"));
+		assertEquals("mailto:peer@p2r.se", UrlNormalizer.normalize("mailto:peer@p2r.se"));
+		assertEquals("file:///C:/Temp/x.html", UrlNormalizer.normalize("file:///C:/Temp/x.html#y"));
+		assertEquals("http://user@p2r.se/%C3%A5", UrlNormalizer.normalize("http://user@p2r.se/%C3%A5"));
+		assertNull(UrlNormalizer.normalize(null));
+	}
+
+}